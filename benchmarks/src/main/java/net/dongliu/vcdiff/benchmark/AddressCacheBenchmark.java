@@ -0,0 +1,65 @@
+package net.dongliu.vcdiff.benchmark;
+
+import net.dongliu.vcdiff.vc.AddressCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode a sequence of copy addresses, mixing addresses near recent ones, repeated ones and random ones.
+ *
+ * @author dongliu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AddressCacheBenchmark {
+
+    private static final int COUNT = 1 << 14;
+
+    private static final long SOURCE_SIZE = 1L << 24;
+
+    private long[] addresses;
+
+    private long[] here;
+
+    private final long[] encodedAddress = new long[1];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0x5eed);
+        addresses = new long[COUNT];
+        here = new long[COUNT];
+        long position = SOURCE_SIZE;
+        for (int i = 0; i < COUNT; i++) {
+            int kind = random.nextInt(3);
+            if (kind == 0 && i > 0) {
+                // near a recent address
+                addresses[i] = Math.max(0, addresses[i - 1 - random.nextInt(Math.min(i, 4))]
+                        + random.nextInt(256) - 128);
+            } else if (kind == 1 && i > 0) {
+                // the same as an earlier address
+                addresses[i] = addresses[random.nextInt(i)];
+            } else {
+                addresses[i] = (long) (random.nextDouble() * SOURCE_SIZE);
+            }
+            here[i] = position;
+            position += 32 + random.nextInt(1024);
+        }
+    }
+
+    @Benchmark
+    public long encodeAddress() {
+        AddressCache cache = new AddressCache();
+        long result = 0;
+        for (int i = 0; i < COUNT; i++) {
+            result += cache.encodeAddress(addresses[i], here[i], encodedAddress);
+            result += encodedAddress[0];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,51 @@
+package net.dongliu.vcdiff.benchmark;
+
+import net.dongliu.vcdiff.diff.ArrayByteSource;
+import net.dongliu.vcdiff.diff.BlockHash;
+import net.dongliu.vcdiff.exception.VcdiffEncodeException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Build the block hash of a source dictionary.
+ *
+ * @author dongliu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BlockHashBenchmark {
+
+    @Param({"1048576", "16777216", "67108864"})
+    public int size;
+
+    private ArrayByteSource source;
+
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() {
+        source = new ArrayByteSource(Corpus.source(size));
+        pool = new ForkJoinPool();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public BlockHash createDictionaryHash() throws VcdiffEncodeException {
+        return BlockHash.createDictionaryHash(source);
+    }
+
+    @Benchmark
+    public BlockHash createDictionaryHashParallel() throws VcdiffEncodeException {
+        return BlockHash.createDictionaryHash(source, pool);
+    }
+}
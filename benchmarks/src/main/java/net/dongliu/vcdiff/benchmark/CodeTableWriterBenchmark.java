@@ -0,0 +1,76 @@
+package net.dongliu.vcdiff.benchmark;
+
+import net.dongliu.vcdiff.exception.VcdiffEncodeException;
+import net.dongliu.vcdiff.vc.CodeTableWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode a window of add / copy instructions, and output the window.
+ *
+ * @author dongliu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CodeTableWriterBenchmark {
+
+    private static final int INSTRUCTIONS = 1 << 14;
+
+    private static final int SOURCE_SIZE = 1 << 24;
+
+    private byte[] data;
+
+    /**
+     * instruction sizes, negative for add, positive for copy
+     */
+    private int[] sizes;
+
+    private long[] addresses;
+
+    private CodeTableWriter coder;
+
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0x5eed);
+        data = new byte[1024];
+        random.nextBytes(data);
+        sizes = new int[INSTRUCTIONS];
+        addresses = new long[INSTRUCTIONS];
+        for (int i = 0; i < INSTRUCTIONS; i++) {
+            if (random.nextBoolean()) {
+                sizes[i] = -(1 + random.nextInt(data.length));
+            } else {
+                sizes[i] = 32 + random.nextInt(4096);
+                addresses[i] = random.nextInt(SOURCE_SIZE - sizes[i]);
+            }
+        }
+        coder = new CodeTableWriter();
+        coder.init(SOURCE_SIZE);
+        out = new ByteArrayOutputStream();
+    }
+
+    @Benchmark
+    public int output() throws IOException, VcdiffEncodeException {
+        out.reset();
+        for (int i = 0; i < INSTRUCTIONS; i++) {
+            int size = sizes[i];
+            if (size < 0) {
+                coder.add(data, 0, -size);
+            } else {
+                coder.copy(addresses[i], size);
+            }
+        }
+        coder.output(out);
+        return out.size();
+    }
+}
@@ -0,0 +1,125 @@
+package net.dongliu.vcdiff.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Synthetic source / target pairs with controlled edit rate.
+ * Data is generated from a fixed seed, so every run of a benchmark sees the same bytes.
+ *
+ * @author dongliu
+ */
+public enum Corpus {
+
+    /**
+     * target is source with single bytes replaced, editRate is the fraction of replaced bytes
+     */
+    SMALL_EDITS {
+        @Override
+        byte[] target(byte[] source, double editRate, Random random) {
+            byte[] target = source.clone();
+            replaceBytes(target, editRate, random);
+            return target;
+        }
+    },
+
+    /**
+     * target is source with random bytes inserted, editRate is the fraction of inserted bytes
+     */
+    INSERTIONS {
+        @Override
+        byte[] target(byte[] source, double editRate, Random random) {
+            int insertions = (int) (source.length * editRate / (MAX_INSERT_SIZE / 2));
+            int[] positions = new int[insertions];
+            for (int i = 0; i < insertions; i++) {
+                positions[i] = random.nextInt(source.length);
+            }
+            Arrays.sort(positions);
+            ByteArrayOutputStream target = new ByteArrayOutputStream(source.length + source.length / 8);
+            int last = 0;
+            for (int position : positions) {
+                target.write(source, last, position - last);
+                byte[] inserted = new byte[1 + random.nextInt(MAX_INSERT_SIZE)];
+                random.nextBytes(inserted);
+                target.write(inserted, 0, inserted.length);
+                last = position;
+            }
+            target.write(source, last, source.length - last);
+            return target.toByteArray();
+        }
+    },
+
+    /**
+     * target is source with blocks reordered, then single bytes replaced with editRate
+     */
+    SHUFFLED_BLOCKS {
+        @Override
+        byte[] target(byte[] source, double editRate, Random random) {
+            int blocks = (source.length + SHUFFLE_BLOCK_SIZE - 1) / SHUFFLE_BLOCK_SIZE;
+            int[] order = new int[blocks];
+            for (int i = 0; i < blocks; i++) {
+                order[i] = i;
+            }
+            for (int i = blocks - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+            byte[] target = new byte[source.length];
+            int pos = 0;
+            for (int block : order) {
+                int start = block * SHUFFLE_BLOCK_SIZE;
+                int len = Math.min(SHUFFLE_BLOCK_SIZE, source.length - start);
+                System.arraycopy(source, start, target, pos, len);
+                pos += len;
+            }
+            replaceBytes(target, editRate, random);
+            return target;
+        }
+    },
+
+    /**
+     * target is unrelated random data, editRate is ignored
+     */
+    RANDOM {
+        @Override
+        byte[] target(byte[] source, double editRate, Random random) {
+            byte[] target = new byte[source.length];
+            random.nextBytes(target);
+            return target;
+        }
+    };
+
+    private static final int MAX_INSERT_SIZE = 64;
+
+    private static final int SHUFFLE_BLOCK_SIZE = 4096;
+
+    private static final long SEED = 0x5eed;
+
+    abstract byte[] target(byte[] source, double editRate, Random random);
+
+    /**
+     * generate source data with given size
+     */
+    public static byte[] source(int size) {
+        byte[] source = new byte[size];
+        new Random(SEED).nextBytes(source);
+        return source;
+    }
+
+    /**
+     * generate target data from source
+     */
+    public byte[] target(byte[] source, double editRate) {
+        return target(source, editRate, new Random(SEED + ordinal() + 1));
+    }
+
+    private static void replaceBytes(byte[] data, double editRate, Random random) {
+        int edits = (int) (data.length * editRate);
+        for (int i = 0; i < edits; i++) {
+            data[random.nextInt(data.length)] ^= (byte) (1 + random.nextInt(255));
+        }
+    }
+}
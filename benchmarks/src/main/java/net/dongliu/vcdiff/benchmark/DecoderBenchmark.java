@@ -0,0 +1,59 @@
+package net.dongliu.vcdiff.benchmark;
+
+import net.dongliu.vcdiff.VcdiffDecoder;
+import net.dongliu.vcdiff.VcdiffEncoder;
+import net.dongliu.vcdiff.exception.VcdiffDecodeException;
+import net.dongliu.vcdiff.exception.VcdiffEncodeException;
+import net.dongliu.vcdiff.io.FixedByteArrayStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode patches of synthetic targets.
+ *
+ * @author dongliu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DecoderBenchmark {
+
+    @Param({"SMALL_EDITS", "INSERTIONS", "SHUFFLED_BLOCKS", "RANDOM"})
+    public Corpus corpus;
+
+    @Param({"1048576", "16777216"})
+    public int size;
+
+    @Param({"0.001", "0.01"})
+    public double editRate;
+
+    private byte[] source;
+
+    private byte[] patch;
+
+    private ByteArrayOutputStream target;
+
+    @Setup
+    public void setUp() throws IOException, VcdiffEncodeException {
+        source = Corpus.source(size);
+        byte[] targetData = corpus.target(source, editRate);
+        ByteArrayOutputStream diff = new ByteArrayOutputStream();
+        new VcdiffEncoder(new ByteArrayInputStream(source), new ByteArrayInputStream(targetData), diff).encode();
+        patch = diff.toByteArray();
+        target = new ByteArrayOutputStream(targetData.length);
+    }
+
+    @Benchmark
+    public int decode() throws IOException, VcdiffDecodeException {
+        target.reset();
+        VcdiffDecoder.decode(new FixedByteArrayStream(source, true), new ByteArrayInputStream(patch), target);
+        return target.size();
+    }
+}
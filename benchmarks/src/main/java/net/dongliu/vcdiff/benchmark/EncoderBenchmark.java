@@ -0,0 +1,64 @@
+package net.dongliu.vcdiff.benchmark;
+
+import net.dongliu.vcdiff.HashedDictionary;
+import net.dongliu.vcdiff.VcdiffEncoder;
+import net.dongliu.vcdiff.exception.VcdiffEncodeException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode synthetic targets, with the source hash built in each encode, or built once ahead.
+ *
+ * @author dongliu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EncoderBenchmark {
+
+    @Param({"SMALL_EDITS", "INSERTIONS", "SHUFFLED_BLOCKS", "RANDOM"})
+    public Corpus corpus;
+
+    @Param({"1048576", "16777216"})
+    public int size;
+
+    @Param({"0.001", "0.01"})
+    public double editRate;
+
+    private byte[] source;
+
+    private byte[] target;
+
+    private HashedDictionary dictionary;
+
+    private ByteArrayOutputStream diff;
+
+    @Setup
+    public void setUp() throws VcdiffEncodeException {
+        source = Corpus.source(size);
+        target = corpus.target(source, editRate);
+        dictionary = new HashedDictionary(source);
+        diff = new ByteArrayOutputStream(target.length);
+    }
+
+    @Benchmark
+    public int encode() throws IOException, VcdiffEncodeException {
+        diff.reset();
+        new VcdiffEncoder(new ByteArrayInputStream(source), new ByteArrayInputStream(target), diff).encode();
+        return diff.size();
+    }
+
+    @Benchmark
+    public int encodeWithDictionary() throws IOException, VcdiffEncodeException {
+        diff.reset();
+        new VcdiffEncoder(dictionary, new ByteArrayInputStream(target), diff).encode();
+        return diff.size();
+    }
+}
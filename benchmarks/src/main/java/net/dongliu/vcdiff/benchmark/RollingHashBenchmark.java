@@ -0,0 +1,49 @@
+package net.dongliu.vcdiff.benchmark;
+
+import net.dongliu.vcdiff.diff.ArrayByteSource;
+import net.dongliu.vcdiff.diff.BlockHash;
+import net.dongliu.vcdiff.diff.RollingHash;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Roll the hash over a buffer one byte a time, as the encoder does when no match is found.
+ *
+ * @author dongliu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RollingHashBenchmark {
+
+    private static final int SIZE = 1 << 16;
+
+    private byte[] data;
+
+    private RollingHash hasher;
+
+    private int firstHash;
+
+    @Setup
+    public void setUp() {
+        data = Corpus.source(SIZE);
+        hasher = new RollingHash(BlockHash.K_BLOCK_SIZE);
+        firstHash = hasher.hash(new ArrayByteSource(data), 0);
+    }
+
+    /**
+     * roll hash over 64 KB
+     */
+    @Benchmark
+    public int updateHash() {
+        int hash = firstHash;
+        for (int i = 0; i + BlockHash.K_BLOCK_SIZE < SIZE; i++) {
+            hash = hasher.updateHash(hash, data[i], data[i + BlockHash.K_BLOCK_SIZE]);
+        }
+        return hash;
+    }
+}
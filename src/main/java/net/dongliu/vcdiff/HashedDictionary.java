@@ -0,0 +1,138 @@
+package net.dongliu.vcdiff;
+
+import net.dongliu.vcdiff.diff.ArrayByteSource;
+import net.dongliu.vcdiff.diff.ByteSource;
+import net.dongliu.vcdiff.diff.EncodeLevel;
+import net.dongliu.vcdiff.diff.MappedByteSource;
+import net.dongliu.vcdiff.diff.VcdiffEngine;
+import net.dongliu.vcdiff.exception.VcdiffEncodeException;
+import net.dongliu.vcdiff.utils.IOUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A source dictionary with its block hash built once, so it can be used to encode many targets.
+ * Instances are immutable after construction and can be shared by any number of VcdiffEncoders,
+ * including encoders running concurrently in different threads.
+ * <p>
+ * The dictionary data is not copied, the caller must not modify it once the dictionary is created.
+ * </p>
+ *
+ * @author dongliu
+ */
+public class HashedDictionary implements Closeable {
+
+    private final ByteSource dictionary;
+
+    private final VcdiffEngine engine;
+
+    /**
+     * Build the hash of the dictionary.
+     *
+     * @param dictionary the source (older) data
+     */
+    public HashedDictionary(byte[] dictionary) throws VcdiffEncodeException {
+        this(new ArrayByteSource(dictionary));
+    }
+
+    /**
+     * Build the hash of the dictionary.
+     *
+     * @param dictionary the source (older) data
+     */
+    public HashedDictionary(ByteSource dictionary) throws VcdiffEncodeException {
+        this(dictionary, null);
+    }
+
+    /**
+     * Build the hash of the dictionary using the pool, for large dictionaries.
+     * The dictionary is the same as one built without a pool.
+     *
+     * @param dictionary the source (older) data
+     * @param pool       the pool to build hash, null for build in current thread
+     */
+    public HashedDictionary(ByteSource dictionary, ForkJoinPool pool) throws VcdiffEncodeException {
+        this(dictionary, EncodeLevel.DEFAULT, pool);
+    }
+
+    /**
+     * Build the hash of the dictionary with the match finding parameters of level.
+     * Targets encoded with the dictionary all use the level.
+     *
+     * @param dictionary the source (older) data
+     * @param level      the encode level
+     * @param pool       the pool to build hash, null for build in current thread
+     */
+    public HashedDictionary(ByteSource dictionary, EncodeLevel level, ForkJoinPool pool)
+            throws VcdiffEncodeException {
+        this.dictionary = dictionary;
+        VcdiffEngine engine = new VcdiffEngine(dictionary, level);
+        if (pool == null) {
+            engine.init();
+        } else {
+            engine.init(pool);
+        }
+        this.engine = engine;
+    }
+
+    /**
+     * Read all data from the stream, and build the hash of it. The caller is responsible for close of the stream.
+     *
+     * @param source the source (older) data
+     */
+    public static HashedDictionary create(InputStream source) throws IOException, VcdiffEncodeException {
+        return new HashedDictionary(IOUtils.readAll(source));
+    }
+
+    /**
+     * Memory map the file and build the hash of it, the file data is not loaded into heap.
+     * The caller should close the dictionary to unmap the file.
+     *
+     * @param sourceFile the source (older) file
+     */
+    public static HashedDictionary map(File sourceFile) throws IOException, VcdiffEncodeException {
+        MappedByteSource source;
+        try (RandomAccessFile raf = new RandomAccessFile(sourceFile, "r")) {
+            source = new MappedByteSource(raf.getChannel());
+        }
+        try {
+            return new HashedDictionary(source);
+        } catch (VcdiffEncodeException | RuntimeException e) {
+            source.close();
+            throw e;
+        }
+    }
+
+    /**
+     * the size of dictionary data
+     */
+    public long size() {
+        return dictionary.size();
+    }
+
+    /**
+     * the encode level the dictionary hash built with
+     */
+    public EncodeLevel getLevel() {
+        return engine.getLevel();
+    }
+
+    VcdiffEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Release the dictionary data if it is a memory mapped file. The dictionary must not be used after closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (dictionary instanceof Closeable) {
+            ((Closeable) dictionary).close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package net.dongliu.vcdiff;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A window of at most capacity bytes, which slides forward over the source stream.
+ * Only the data in window is hold in memory, the source stream is read once, in order.
+ *
+ * @author dongliu
+ */
+class SourceWindow {
+
+    private final InputStream source;
+
+    private final byte[] buffer;
+
+    /**
+     * the source position of buffer[0]
+     */
+    private long start;
+
+    /**
+     * the number of source bytes in buffer
+     */
+    private int length;
+
+    private boolean eof;
+
+    SourceWindow(InputStream source, int capacity) {
+        this.source = source;
+        this.buffer = new byte[capacity];
+    }
+
+    /**
+     * Slide the window to start at position from, and fill it with the source data.
+     * Data before from is dropped only when the space is needed, so near the end of source
+     * the window keeps the data before from, and is full unless the source is smaller than capacity.
+     * The window never slides back, a position before the start of window is taken as the start.
+     */
+    void moveTo(long from) throws IOException {
+        from = Math.max(from, start);
+        long end = from + buffer.length;
+        while (!eof && start + length < end) {
+            if (length == buffer.length) {
+                int drop = (int) Math.min(from - start, length);
+                System.arraycopy(buffer, drop, buffer, 0, length - drop);
+                start += drop;
+                length -= drop;
+            }
+            int size = source.read(buffer, length, buffer.length - length);
+            if (size < 0) {
+                eof = true;
+            } else {
+                length += size;
+            }
+        }
+    }
+
+    /**
+     * the source data of window, at [0, length). The data changes when the window moves
+     */
+    byte[] data() {
+        return buffer;
+    }
+
+    /**
+     * the source position of window
+     */
+    long start() {
+        return start;
+    }
+
+    int length() {
+        return length;
+    }
+}
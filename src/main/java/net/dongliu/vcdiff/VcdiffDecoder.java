@@ -2,17 +2,29 @@ package net.dongliu.vcdiff;
 
 import net.dongliu.vcdiff.exception.VcdiffDecodeException;
 import net.dongliu.vcdiff.io.ByteArrayStream;
-import net.dongliu.vcdiff.io.FileStream;
+import net.dongliu.vcdiff.io.ChannelInputStream;
+import net.dongliu.vcdiff.io.FileChannelStream;
 import net.dongliu.vcdiff.io.FixedByteArrayStream;
+import net.dongliu.vcdiff.io.InputSectionStream;
 import net.dongliu.vcdiff.io.RandomAccessStream;
 import net.dongliu.vcdiff.utils.IOUtils;
 import net.dongliu.vcdiff.utils.Misc;
 import net.dongliu.vcdiff.vc.AddressCache;
 import net.dongliu.vcdiff.vc.CodeTable;
 import net.dongliu.vcdiff.vc.Instruction;
+import net.dongliu.vcdiff.vc.SecondaryCompressor;
+import net.dongliu.vcdiff.vc.SecondaryCompressors;
 import net.dongliu.vcdiff.vc.Vcdiff;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.Adler32;
 
 /**
  * vcdiff decode.
@@ -27,6 +39,19 @@ public class VcdiffDecoder {
 
     private RandomAccessStream targetStream;
 
+    /**
+     * the output when decode to a plain stream, the windows are written to it in order.
+     */
+    private OutputStream targetOutput;
+
+    /**
+     * buffers reused between windows, grow to the size of the largest window.
+     */
+    private byte[] targetBuffer = new byte[0];
+    private byte[] addRunDataBuffer = new byte[0];
+    private byte[] instructionsBuffer = new byte[0];
+    private byte[] addressesBuffer = new byte[0];
+
     /**
      * code table
      */
@@ -34,6 +59,37 @@ public class VcdiffDecoder {
 
     private AddressCache cache = new AddressCache(4, 3);
 
+    /**
+     * the compressor for compressed sections, set by header
+     */
+    private SecondaryCompressor secondaryCompressor;
+
+    /**
+     * if the patch has the 'S' version of open-vcdiff, set by header. The checksum is a var-len integer,
+     * and windows may be interleaved, which is decided by each window.
+     */
+    private boolean versionS;
+
+    /**
+     * the source segment of last VCD_SOURCE window, reused while windows use the same segment of source.
+     * Usually all windows use the whole source as segment.
+     */
+    private RandomAccessStream sourceSegment;
+    private long sourceSegmentPos;
+    private int sourceSegmentLen;
+
+    /**
+     * the position of COPY address 0 in the source data of window, not 0 only if the source segment is too large
+     * to slice, and is read from the source stream directly
+     */
+    private long sourceDataOffset;
+
+    /**
+     * checksum of current target window, updated each time this many bytes are decoded
+     */
+    private final Adler32 adler32 = new Adler32();
+    private static final int CHECKSUM_CHUNK_SIZE = 64 * 1024;
+
     /**
      * Constructor. The caller is responsible for close of the passed streams.
      *
@@ -47,6 +103,22 @@ public class VcdiffDecoder {
         this.targetStream = targetStream;
     }
 
+    /**
+     * Constructor for decoding to a plain output stream. Each window is written out as soon as it is decoded,
+     * and window buffers are reused, so the memory used not depends on the target size.
+     * Patches with VCD_TARGET windows need read back the target, and can not be decoded this way.
+     * The caller is responsible for close of the passed streams.
+     *
+     * @param sourceStream older data
+     * @param patchStream  diff between older and newer data
+     * @param targetOutput result of patch application to the older data (output)
+     */
+    public VcdiffDecoder(RandomAccessStream sourceStream, InputStream patchStream, OutputStream targetOutput) {
+        this.sourceStream = sourceStream;
+        this.patchStream = patchStream;
+        this.targetOutput = targetOutput;
+    }
+
     /**
      * Convenient static method for caller. Apply vcdiff decode file to source file.
      *
@@ -56,11 +128,43 @@ public class VcdiffDecoder {
      */
     public static void decode(File sourceFile, File patchFile, File targetFile)
             throws IOException, VcdiffDecodeException {
-        try (RandomAccessStream sourceStream = new FileStream(new RandomAccessFile(sourceFile, "r"), true);
-             InputStream patchStream = new FileInputStream(patchFile);
-             RandomAccessStream targetStream = new FileStream(new RandomAccessFile(targetFile, "rw"))
+        try (FileChannel sourceChannel = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ);
+             FileChannel patchChannel = FileChannel.open(patchFile.toPath(), StandardOpenOption.READ);
+             FileChannel targetChannel = FileChannel.open(targetFile.toPath(), StandardOpenOption.READ,
+                     StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)
         ) {
-            decode(sourceStream, patchStream, targetStream);
+            decode(sourceChannel, patchChannel, targetChannel);
+        }
+    }
+
+    /**
+     * Convenient static method for caller. Apply vcdiff patch to source, with channels.
+     * The patch is read through a direct buffer, and the source is read by positional reads of the file channel.
+     * If the target is a file channel, the target is written from position 0 of the file, by positional writes;
+     * otherwise the target is written to the channel in order, and patches with VCD_TARGET windows can not be decoded.
+     * The patch channel may be read beyond the end of the patch, the data read ahead is dropped.
+     * The caller is responsible for close of the passed channels.
+     *
+     * @param sourceChannel older data
+     * @param patchChannel  diff between older and newer data
+     * @param targetChannel result of patch application to the older data (output)
+     */
+    public static void decode(FileChannel sourceChannel, ReadableByteChannel patchChannel,
+                              WritableByteChannel targetChannel)
+            throws IOException, VcdiffDecodeException {
+        RandomAccessStream sourceStream = new FileChannelStream(sourceChannel, true);
+        ChannelInputStream patchStream = new ChannelInputStream(patchChannel);
+        try {
+            if (targetChannel instanceof FileChannel) {
+                FileChannelStream targetStream = new FileChannelStream((FileChannel) targetChannel);
+                decode(sourceStream, patchStream, targetStream);
+                targetStream.flush();
+            } else {
+                decode(sourceStream, patchStream, targetChannel);
+            }
+        } finally {
+            // the caller closes the patch channel
+            patchStream.release();
         }
     }
 
@@ -79,6 +183,36 @@ public class VcdiffDecoder {
         decoder.decode();
     }
 
+    /**
+     * Convenient static method for caller. Apply vcdiff patch to source, and write the result to a stream.
+     * The caller is responsible for close of the passed streams.
+     *
+     * @param sourceStream older data
+     * @param patchStream  diff between older and newer data
+     * @param targetOutput result of patch application to the older data (output)
+     */
+    public static void decode(RandomAccessStream sourceStream, InputStream patchStream, OutputStream targetOutput)
+            throws IOException, VcdiffDecodeException {
+        VcdiffDecoder decoder = new VcdiffDecoder(sourceStream, patchStream, targetOutput);
+        decoder.decode();
+    }
+
+    /**
+     * Convenient static method for caller. Apply vcdiff patch to source, and write the result to a channel.
+     * The caller is responsible for close of the passed streams.
+     *
+     * @param sourceStream  older data
+     * @param patchStream   diff between older and newer data
+     * @param targetChannel result of patch application to the older data (output)
+     */
+    public static void decode(RandomAccessStream sourceStream, InputStream patchStream,
+                              WritableByteChannel targetChannel)
+            throws IOException, VcdiffDecodeException {
+        OutputStream targetOutput = Channels.newOutputStream(targetChannel);
+        decode(sourceStream, patchStream, targetOutput);
+        targetOutput.flush();
+    }
+
     /**
      * do vcdiff decode.
      *
@@ -86,8 +220,13 @@ public class VcdiffDecoder {
      * @throws net.dongliu.vcdiff.exception.VcdiffDecodeException
      */
     public void decode() throws IOException, VcdiffDecodeException {
-        readHeader();
-        while (decodeWindow()) ;
+        try {
+            readHeader();
+            while (decodeWindow()) ;
+        } finally {
+            IOUtils.closeQuietly(sourceSegment);
+            sourceSegment = null;
+        }
     }
 
     /*
@@ -107,7 +246,9 @@ public class VcdiffDecoder {
             // not vcdiff file.
             throw new VcdiffDecodeException("The file is not valid vcdiff file.");
         }
-        if (magic[3] != 0) {
+        if (magic[3] == Vcdiff.VERSION_INTERLEAVED) {
+            versionS = true;
+        } else if (magic[3] != 0) {
             // version num.for standard vcdiff file, is always 0.
             throw new UnsupportedOperationException("Unsupported vcdiff version.");
         }
@@ -118,11 +259,12 @@ public class VcdiffDecoder {
         boolean applicationHeader = ((headerIndicator & Vcdiff.VCD_EXT_APPLICATION_HEADER) != 0);
 
         // read Secondary compressor ID
-        byte secondaryCompressorID = 0;
         if (secondaryCompress) {
-            secondaryCompressorID = (byte) patchStream.read();
-            // now support now
-            throw new UnsupportedOperationException("Vcdiff with secondary compressors not supported");
+            int secondaryCompressorID = patchStream.read();
+            secondaryCompressor = SecondaryCompressors.get(secondaryCompressorID);
+            if (secondaryCompressor == null) {
+                throw new VcdiffDecodeException("Unsupported secondary compressor:" + secondaryCompressorID);
+            }
         }
 
         // other bits should be zero.
@@ -197,7 +339,7 @@ public class VcdiffDecoder {
 
         // Work out what the source data is, and detect invalid window indicators
         RandomAccessStream sourceWindowStream;
-        int tempTargetStreamPos = -1;
+        long tempTargetStreamPos = -1;
         switch (windowIndicator) {
             // No source data used in this window
             case 0:
@@ -212,6 +354,9 @@ public class VcdiffDecoder {
                 break;
             // Source data comes from the target stream
             case Vcdiff.VCD_TARGET:
+                if (this.targetStream == null) {
+                    throw new VcdiffDecodeException("VCD_TARGET window requires a random access target stream.");
+                }
                 sourceWindowStream = targetStream;
                 tempTargetStreamPos = targetStream.pos();
                 break;
@@ -222,25 +367,58 @@ public class VcdiffDecoder {
 
         // Read the source data, if any
         RandomAccessStream sourceData = null;
-        int sourceWindowLen = 0;
+        long sourceWindowLen = 0;
+        sourceDataOffset = 0;
         if (sourceWindowStream != null) {
-            sourceWindowLen = IOUtils.readVarIntBE(patchStream);
-            int sourceWindowPos = IOUtils.readVarIntBE(patchStream);
-
-            sourceWindowStream.seek(sourceWindowPos);
+            sourceWindowLen = IOUtils.readVarLongBE(patchStream);
+            long sourceWindowPos = IOUtils.readVarLongBE(patchStream);
+
+            if (windowIndicator == Vcdiff.VCD_SOURCE) {
+                if (sourceWindowLen > Integer.MAX_VALUE) {
+                    // too large to slice, COPY reads the source stream at the segment position
+                    sourceData = sourceStream;
+                    sourceDataOffset = sourceWindowPos;
+                } else {
+                    sourceData = sourceSegment(sourceWindowPos, (int) sourceWindowLen);
+                }
+            } else {
+                if (sourceWindowLen > Integer.MAX_VALUE) {
+                    throw new VcdiffDecodeException("Target segment too large:" + sourceWindowLen);
+                }
+                sourceWindowStream.seek(sourceWindowPos);
 
-            sourceData = IOUtils.slice(sourceWindowStream, sourceWindowLen, false);
+                sourceData = IOUtils.slice(sourceWindowStream, (int) sourceWindowLen, false);
 
-            // restore the position the source stream if appropriate
-            if (tempTargetStreamPos != -1) {
+                // restore the position the source stream if appropriate
                 targetStream.seek(tempTargetStreamPos);
             }
         }
         //sourceStream = null;
         deltaEncoding(hasAdler32Checksum, sourceData, sourceWindowLen);
+        if (sourceData != sourceSegment && sourceData != sourceStream) {
+            IOUtils.closeQuietly(sourceData);
+        }
         return true;
     }
 
+    /**
+     * The segment of source stream. The source is not changed while decoding, so the segment shares data
+     * with the source stream if the stream supports, and is reused by following windows with the same segment.
+     */
+    private RandomAccessStream sourceSegment(long pos, int len) throws IOException {
+        if (sourceSegment != null && sourceSegmentPos == pos && sourceSegmentLen == len) {
+            sourceSegment.seek(0);
+            return sourceSegment;
+        }
+        IOUtils.closeQuietly(sourceSegment);
+        sourceSegment = null;
+        sourceStream.seek(pos);
+        sourceSegment = IOUtils.slice(sourceStream, len, true);
+        sourceSegmentPos = pos;
+        sourceSegmentLen = len;
+        return sourceSegment;
+    }
+
 
     /*
               Length of the delta encoding        - integer
@@ -254,7 +432,7 @@ public class VcdiffDecoder {
               Instructions and sizes section      - array of bytes
               Addresses section for COPYs         - array of bytes
      */
-    private void deltaEncoding(boolean hasAdler32Checksum, RandomAccessStream sourceData, int sourceLen)
+    private void deltaEncoding(boolean hasAdler32Checksum, RandomAccessStream sourceData, long sourceLen)
             throws IOException, VcdiffDecodeException {
         // Length of the delta encoding
         IOUtils.readVarIntBE(patchStream);
@@ -268,8 +446,9 @@ public class VcdiffDecoder {
         boolean instCompress = (deltaIndicator & Vcdiff.VCD_INST_COMP) != 0;
         boolean addrCompress = (deltaIndicator & Vcdiff.VCD_ADDR_COMP) != 0;
 
-        byte[] targetData = new byte[targetLen];
-        RandomAccessStream targetDataStream = new ByteArrayStream(targetData);
+        targetBuffer = ensureSize(targetBuffer, targetLen);
+        byte[] targetData = targetBuffer;
+        RandomAccessStream targetDataStream = new ByteArrayStream(ByteBuffer.wrap(targetData, 0, targetLen));
 
         // Length of data for ADDs and RUNs
         int addRunDataLen = IOUtils.readVarIntBE(patchStream);
@@ -279,26 +458,69 @@ public class VcdiffDecoder {
         int addressesLen = IOUtils.readVarIntBE(patchStream);
 
         // If we've been given a checksum, we have to read it and we might as well
-        int checksumInFile = 0;
-        if (hasAdler32Checksum) {
+        // use it to check the target window. It is an unsigned 32-bit big endian integer
+        long checksumInFile = 0;
+        if (hasAdler32Checksum && versionS) {
+            // the 'S' version of open-vcdiff, the checksum is a var-len integer
+            checksumInFile = IOUtils.readVarLongBE(patchStream);
+            adler32.reset();
+        } else if (hasAdler32Checksum) {
             byte[] checksumBytes = IOUtils.readBytes(patchStream, 4);
-            checksumInFile = (checksumBytes[0] << 24)
-                    | (checksumBytes[1] << 16) | (checksumBytes[2] << 8)
-                    | checksumBytes[3];
+            checksumInFile = ((checksumBytes[0] & 0xffL) << 24)
+                    | ((checksumBytes[1] & 0xff) << 16) | ((checksumBytes[2] & 0xff) << 8)
+                    | (checksumBytes[3] & 0xff);
+            adler32.reset();
         }
+        int checksummedLen = 0;
 
-        // Data section for ADDs and RUNs
-        byte[] addRunData = IOUtils.readBytes(patchStream, addRunDataLen);
+        RandomAccessStream instructionStream;
+        byte[] addRunData = null;
         int addRunDataIndex = 0;
-        // Instructions and sizes section
-        byte[] instructions = IOUtils.readBytes(patchStream, instructionsLen);
-        // Addresses section for COPYs
-        byte[] addresses = IOUtils.readBytes(patchStream, addressesLen);
+        // as open-vcdiff does, a window of 'S' version is interleaved if data and addresses sections are empty,
+        // patches only use the var-len checksum keep the sections separated
+        boolean interleaved = versionS && addRunDataLen == 0 && addressesLen == 0;
+        if (interleaved) {
+            // data and addresses are read from the instructions section, as the instructions need them
+            if (instCompress) {
+                instructionsBuffer = ensureSize(instructionsBuffer, instructionsLen);
+                byte[] instructions = IOUtils.readBytes(patchStream, instructionsBuffer, instructionsLen);
+                instructions = decompress(instructions, instructionsLen);
+                instructionStream = new FixedByteArrayStream(ByteBuffer.wrap(instructions).asReadOnlyBuffer());
+            } else {
+                instructionStream = new InputSectionStream(patchStream, instructionsLen);
+            }
+            cache.reset(instructionStream);
+        } else {
+            // Data section for ADDs and RUNs
+            addRunDataBuffer = ensureSize(addRunDataBuffer, addRunDataLen);
+            addRunData = IOUtils.readBytes(patchStream, addRunDataBuffer, addRunDataLen);
+            // Instructions and sizes section
+            instructionsBuffer = ensureSize(instructionsBuffer, instructionsLen);
+            byte[] instructions = IOUtils.readBytes(patchStream, instructionsBuffer, instructionsLen);
+            // Addresses section for COPYs
+            addressesBuffer = ensureSize(addressesBuffer, addressesLen);
+            byte[] addresses = IOUtils.readBytes(patchStream, addressesBuffer, addressesLen);
+
+            if (dataCompress) {
+                addRunData = decompress(addRunData, addRunDataLen);
+                addRunDataLen = addRunData.length;
+            }
+            if (instCompress) {
+                instructions = decompress(instructions, instructionsLen);
+                instructionsLen = instructions.length;
+            }
+            if (addrCompress) {
+                addresses = decompress(addresses, addressesLen);
+                addressesLen = addresses.length;
+            }
 
-        RandomAccessStream instructionStream = new FixedByteArrayStream(instructions, true);
+            instructionStream = new FixedByteArrayStream(
+                    ByteBuffer.wrap(instructions, 0, instructionsLen).asReadOnlyBuffer());
 
-        cache.reset(addresses);
+            cache.reset(addresses, addressesLen);
+        }
 
+        int[] packedEntries = codeTable.getPackedEntries();
         while (true) {
             int instructionIndex = instructionStream.read();
             if (instructionIndex == -1) {
@@ -306,59 +528,157 @@ public class VcdiffDecoder {
             }
 
             for (int i = 0; i < 2; i++) {
-                Instruction instruction = codeTable.get(instructionIndex, i);
-                int size = instruction.getSize();
+                int instruction = packedEntries[(instructionIndex << 1) + i];
+                int type = CodeTable.packedType(instruction);
+                if (type == Instruction.TYPE_NO_OP) {
+                    continue;
+                }
+                int size = CodeTable.packedSize(instruction);
                 // separated encoded size
-                if (size == 0 && instruction.getIst() != Instruction.TYPE_NO_OP) {
+                if (size == 0) {
                     size = IOUtils.readVarIntBE(instructionStream);
                 }
-                switch (instruction.getIst()) {
-                    case Instruction.TYPE_NO_OP:
-                        break;
+                switch (type) {
                     case Instruction.TYPE_ADD:
-                        targetDataStream.write(addRunData, addRunDataIndex, size);
-                        addRunDataIndex += size;
+                        if (interleaved) {
+                            int pos = checkTargetRange(targetDataStream, size, targetLen);
+                            IOUtils.readBytes(instructionStream, targetData, pos, size);
+                            targetDataStream.seek(pos + size);
+                        } else {
+                            // the buffer is reused and may be larger than the data section of this window
+                            if (size > addRunDataLen - addRunDataIndex) {
+                                throw new VcdiffDecodeException("Invalid ADD/RUN data size");
+                            }
+                            targetDataStream.write(addRunData, addRunDataIndex, size);
+                            addRunDataIndex += size;
+                        }
                         break;
                     case Instruction.TYPE_COPY:
-                        int addr = cache.decodeAddress(targetDataStream.pos() + sourceLen, instruction.getMode());
-                        if (sourceData != null && addr < sourceLen) {
-                            sourceData.seek(addr);
-                            IOUtils.copy(sourceData, targetDataStream, size);
+                        long address = cache.decodeAddress(targetDataStream.pos() + sourceLen,
+                                CodeTable.packedMode(instruction));
+                        if (sourceData != null && address < sourceLen) {
+                            // read into the target window directly, no copy of the data in between
+                            int pos = checkTargetRange(targetDataStream, size, targetLen);
+                            int sourceSize = (int) Math.min(size, sourceLen - address);
+                            sourceData.seek(sourceDataOffset + address);
+                            IOUtils.readBytes(sourceData, targetData, pos, sourceSize);
+                            if (sourceSize < size) {
+                                // the copy continues from the start of target window, never past the segment
+                                copyInTarget(targetData, 0, pos + sourceSize, size - sourceSize);
+                            }
+                            targetDataStream.seek(pos + size);
                         } else {
                             // Data is in target data, Get rid of the offset
-                            addr -= sourceLen;
-                            if (addr + size < targetDataStream.pos()) {
-                                targetDataStream.write(targetData, addr, size);
-                            } else {
-                                // If overlap. Can we just ignore overlap issues?
-                                for (int j = 0; j < size; j++) {
-                                    targetDataStream.write(targetData[addr++]);
-                                }
+                            int addr = (int) (address - sourceLen);
+                            int pos = checkTargetRange(targetDataStream, size, targetLen);
+                            if (addr < 0 || addr >= pos) {
+                                throw new VcdiffDecodeException("Invalid COPY address:" + address);
                             }
+                            copyInTarget(targetData, addr, pos, size);
+                            targetDataStream.seek(pos + size);
                         }
                         break;
                     case Instruction.TYPE_RUN:
-                        byte data = addRunData[addRunDataIndex++];
-                        for (int j = 0; j < size; j++) {
-                            targetDataStream.write(data);
+                        if (!interleaved && addRunDataIndex >= addRunDataLen) {
+                            throw new VcdiffDecodeException("Invalid ADD/RUN data size");
                         }
+                        byte data = interleaved ? (byte) IOUtils.readByte(instructionStream)
+                                : addRunData[addRunDataIndex++];
+                        int pos = checkTargetRange(targetDataStream, size, targetLen);
+                        Arrays.fill(targetData, pos, pos + size, data);
+                        targetDataStream.seek(pos + size);
                         break;
                     default:
                         throw new VcdiffDecodeException("Invalid instruction type found.");
                 }
             }
+            // checksum the data just produced, while it is still in cache
+            if (hasAdler32Checksum && targetDataStream.pos() - checksummedLen >= CHECKSUM_CHUNK_SIZE) {
+                int pos = (int) targetDataStream.pos();
+                adler32.update(targetData, checksummedLen, pos - checksummedLen);
+                checksummedLen = pos;
+            }
+        }
+        if (targetDataStream.pos() != targetLen) {
+            throw new VcdiffDecodeException("Target window size mismatch, expect " + targetLen
+                    + ", but decoded " + targetDataStream.pos());
         }
         IOUtils.closeQuietly(targetDataStream);
-        IOUtils.closeQuietly(sourceData);
-        targetStream.write(targetData, 0, targetLen);
-
         if (hasAdler32Checksum) {
-            // check sum
-            check(checksumInFile, targetData);
+            adler32.update(targetData, checksummedLen, targetLen - checksummedLen);
+            check(checksumInFile, adler32.getValue());
+        }
+        if (targetStream != null) {
+            targetStream.write(targetData, 0, targetLen);
+        } else {
+            targetOutput.write(targetData, 0, targetLen);
+        }
+    }
+
+    /**
+     * @return current position of target window
+     * @throws VcdiffDecodeException if the instruction writes beyond the target window
+     */
+    private static int checkTargetRange(RandomAccessStream targetDataStream, int size, int targetLen)
+            throws IOException, VcdiffDecodeException {
+        int pos = (int) targetDataStream.pos();
+        if (size > targetLen - pos) {
+            throw new VcdiffDecodeException("Instruction size " + size + " exceeds target window size " + targetLen);
         }
+        return pos;
     }
 
-    private void check(int checksumInFile, byte[] targetData) {
-        //TODO: adler32 check.
+    /**
+     * Copy size bytes from addr to pos of the target window, as copy byte by byte.
+     * If the ranges overlap, the data in [addr, pos) repeats; the repeated data is copied in blocks,
+     * and the block doubles each time.
+     */
+    private static void copyInTarget(byte[] targetData, int addr, int pos, int size) {
+        int distance = pos - addr;
+        if (distance >= size) {
+            System.arraycopy(targetData, addr, targetData, pos, size);
+            return;
+        }
+        // [addr, pos + copied) repeats with period distance, and copied is multiple of distance,
+        // so the next copied + distance bytes from addr are ready
+        int copied = 0;
+        while (copied < size) {
+            int len = Math.min(copied + distance, size - copied);
+            System.arraycopy(targetData, addr, targetData, pos + copied, len);
+            copied += len;
+        }
+    }
+
+    /**
+     * decompress a section compressed by secondary compressor:
+     * the size of decompressed data, and then the compressed data.
+     */
+    private byte[] decompress(byte[] section, int length) throws IOException, VcdiffDecodeException {
+        if (secondaryCompressor == null) {
+            throw new VcdiffDecodeException("Compressed section found, but no secondary compressor in header");
+        }
+        RandomAccessStream sectionStream = new FixedByteArrayStream(ByteBuffer.wrap(section, 0, length));
+        int size = IOUtils.readVarIntBE(sectionStream);
+        int offset = (int) sectionStream.pos();
+        byte[] decompressed = new byte[size];
+        secondaryCompressor.decompress(section, offset, length - offset, decompressed, size);
+        return decompressed;
+    }
+
+    /**
+     * return the buffer if it is large enough, otherwise a new one.
+     */
+    private static byte[] ensureSize(byte[] buffer, int size) {
+        if (buffer.length >= size) {
+            return buffer;
+        }
+        return new byte[size];
+    }
+
+    private void check(long checksumInFile, long checksum) throws VcdiffDecodeException {
+        if (checksumInFile != checksum) {
+            throw new VcdiffDecodeException("Target window checksum mismatch, expect " + checksumInFile
+                    + ", but got " + checksum);
+        }
     }
 }
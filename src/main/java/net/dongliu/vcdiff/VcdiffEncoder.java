@@ -1,12 +1,24 @@
 package net.dongliu.vcdiff;
 
-import net.dongliu.vcdiff.diff.Pointer;
+import net.dongliu.vcdiff.diff.ArrayByteSource;
+import net.dongliu.vcdiff.diff.EncodeLevel;
+import net.dongliu.vcdiff.diff.TargetHistory;
 import net.dongliu.vcdiff.diff.VcdiffEngine;
 import net.dongliu.vcdiff.exception.VcdiffEncodeException;
-import net.dongliu.vcdiff.utils.IOUtils;
 import net.dongliu.vcdiff.vc.CodeTableWriter;
+import net.dongliu.vcdiff.vc.SecondaryCompressor;
+import net.dongliu.vcdiff.vc.SecondaryCompressors;
+
+import net.dongliu.vcdiff.io.ByteVector;
+import net.dongliu.vcdiff.utils.IOUtils;
 
 import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.Adler32;
 
 /**
  * vcdiff encoder, based on Bentley-McIlroy 99: "Data Compression Using Long Common Strings.",
@@ -17,6 +29,10 @@ import java.io.*;
 public class VcdiffEncoder {
 
     private final InputStream source;
+    /**
+     * pre-built source dictionary, if set the source stream is not used
+     */
+    private final HashedDictionary dictionary;
     private final InputStream target;
     private final OutputStream diff;
     /**
@@ -29,10 +45,39 @@ public class VcdiffEncoder {
 
     private boolean addChecksum;
 
+    /**
+     * checksum of the target window last read, if addChecksum is set
+     */
+    private final Adler32 adler32 = new Adler32();
+
     private int windowSize = DEFAULT_WINDOW_SIZE;
 
     private static final int DEFAULT_WINDOW_SIZE = 16 * 1024 * 1024;
 
+    /**
+     * if set, target windows are encoded concurrently in this pool
+     */
+    private ForkJoinPool pool;
+
+    /**
+     * if set, compress sections of windows with it
+     */
+    private SecondaryCompressor secondaryCompressor;
+
+    private EncodeLevel level = EncodeLevel.DEFAULT;
+
+    private boolean interleaved;
+
+    /**
+     * if positive, each target window is encoded against a segment of at most this size of source
+     */
+    private int sourceWindowSize;
+
+    /**
+     * if positive, windows may use this many bytes of target before them as source segment
+     */
+    private int targetHistorySize;
+
     /**
      * Constructor. The caller is responsible for close of the passed streams.
      *
@@ -42,6 +87,23 @@ public class VcdiffEncoder {
      */
     public VcdiffEncoder(InputStream source, InputStream target, OutputStream diff) {
         this.source = source;
+        this.dictionary = null;
+        this.target = target;
+        this.diff = diff;
+        coder = new CodeTableWriter();
+    }
+
+    /**
+     * Constructor with a pre-built dictionary. The dictionary can be shared between encoders.
+     * The caller is responsible for close of the passed streams.
+     *
+     * @param dictionary the hashed older data
+     * @param target     newer data
+     * @param diff       diff between older and newer data (output)
+     */
+    public VcdiffEncoder(HashedDictionary dictionary, InputStream target, OutputStream diff) {
+        this.source = null;
+        this.dictionary = dictionary;
         this.target = target;
         this.diff = diff;
         coder = new CodeTableWriter();
@@ -49,6 +111,7 @@ public class VcdiffEncoder {
 
     /**
      * Convenient method for encode decode file, use default setting and code tables.
+     * The source file is memory mapped instead of read into heap.
      *
      * @param sourceFile older file
      * @param targetFile newer file
@@ -56,34 +119,226 @@ public class VcdiffEncoder {
      */
     public static void encode(File sourceFile, File targetFile, File patchFile)
             throws IOException, VcdiffEncodeException {
-        try (FileInputStream sourceStream = new FileInputStream(sourceFile);
+        try (HashedDictionary dictionary = HashedDictionary.map(sourceFile);
              FileInputStream targetStream = new FileInputStream(targetFile);
-             FileOutputStream patchStream = new FileOutputStream(patchFile)
+             OutputStream patchStream = new BufferedOutputStream(new FileOutputStream(patchFile))
         ) {
-            VcdiffEncoder encoder = new VcdiffEncoder(sourceStream, targetStream, patchStream);
+            VcdiffEncoder encoder = new VcdiffEncoder(dictionary, targetStream, patchStream);
             encoder.encode();
         }
     }
 
     public void encode() throws IOException, VcdiffEncodeException {
-        byte[] sourceData = IOUtils.readAll(source);
-        VcdiffEngine engine = new VcdiffEngine(new Pointer(sourceData), sourceData.length);
-        engine.init();
+        if (dictionary == null && sourceWindowSize > 0) {
+            encodeWithSourceWindow();
+            return;
+        }
+        HashedDictionary dictionary = this.dictionary;
+        if (dictionary == null) {
+            dictionary = new HashedDictionary(new ArrayByteSource(IOUtils.readAll(source)), level, pool);
+        }
+        VcdiffEngine engine = dictionary.getEngine();
 
         coder.init(engine.getSourceSize());
+        coder.setSecondaryCompressor(secondaryCompressor);
+        coder.setInterleaved(interleaved);
         coder.writeHeader(diff);
 
+        if (pool != null) {
+            encodeParallel(engine);
+            diff.flush();
+            return;
+        }
+
+        TargetHistory history = targetHistorySize > 0 ? new TargetHistory(targetHistorySize, engine.getLevel()) : null;
         byte[] window = new byte[windowSize];
         int len;
-        while ((len = target.read(window)) > 0) {
-            if (addChecksum) {
-                coder.addChecksum(computeAdler32(window, len));
+        while ((len = readWindow(window)) > 0) {
+            encodeWindow(engine, window, len, history);
+        }
+        diff.flush();
+    }
+
+    /**
+     * Encode each target window against a segment of source, with the middle of segment at the middle of the
+     * target window. The source is read in order as the segment slides forward, and only the segment is hashed.
+     */
+    private void encodeWithSourceWindow() throws IOException, VcdiffEncodeException {
+        coder.setSecondaryCompressor(secondaryCompressor);
+        coder.setInterleaved(interleaved);
+        coder.writeHeader(diff);
+
+        SourceWindow sourceWindow = new SourceWindow(source, sourceWindowSize);
+        TargetHistory history = targetHistorySize > 0 ? new TargetHistory(targetHistorySize, level) : null;
+        VcdiffEngine engine = null;
+        long segmentStart = -1;
+        long targetPosition = 0;
+        byte[] window = new byte[windowSize];
+        int len;
+        while ((len = readWindow(window)) > 0) {
+            sourceWindow.moveTo(Math.max(0, targetPosition + len / 2 - sourceWindowSize / 2));
+            // the hash is rebuilt only if the segment moved
+            if (engine == null || segmentStart != sourceWindow.start()
+                    || engine.getSourceSize() != sourceWindow.length()) {
+                engine = new VcdiffEngine(new ArrayByteSource(sourceWindow.data(), sourceWindow.length()), level);
+                if (pool == null) {
+                    engine.init();
+                } else {
+                    engine.init(pool);
+                }
+                segmentStart = sourceWindow.start();
             }
-            engine.encode(window, len, lookForTargetMatches, diff, coder);
+            coder.init(segmentStart, engine.getSourceSize());
+            encodeWindow(engine, window, len, history);
+            targetPosition += len;
         }
         diff.flush();
     }
 
+    /**
+     * Encode a window against the source segment coder is init with, and write it.
+     * With target history, the window is also encoded against the target data before it as a VCD_TARGET window,
+     * and the smaller one is written.
+     */
+    private void encodeWindow(VcdiffEngine engine, byte[] window, int len, TargetHistory history)
+            throws IOException, VcdiffEncodeException {
+        long checksum = adler32.getValue();
+        if (addChecksum) {
+            coder.addChecksum(checksum);
+        }
+        if (history == null || history.length() == 0) {
+            engine.encode(window, len, lookForTargetMatches, diff, coder);
+        } else {
+            ByteVector fromSource = new ByteVector();
+            engine.encode(window, len, lookForTargetMatches, fromSource, coder);
+
+            VcdiffEngine historyEngine = history.engine();
+            CodeTableWriter historyCoder = newCoder();
+            historyCoder.init(history.start(), history.length(), true);
+            if (addChecksum) {
+                historyCoder.addChecksum(checksum);
+            }
+            ByteVector fromTarget = new ByteVector();
+            historyEngine.encode(window, len, lookForTargetMatches, fromTarget, historyCoder);
+
+            ByteVector encoded = fromTarget.size() < fromSource.size() ? fromTarget : fromSource;
+            diff.write(encoded.data(), 0, encoded.size());
+        }
+        if (history != null) {
+            history.append(window, len);
+        }
+    }
+
+    /**
+     * a coder for windows, with the settings of this encoder
+     */
+    private CodeTableWriter newCoder() {
+        CodeTableWriter windowCoder = new CodeTableWriter();
+        windowCoder.setSecondaryCompressor(secondaryCompressor);
+        windowCoder.setInterleaved(interleaved);
+        return windowCoder;
+    }
+
+    /**
+     * Encode windows concurrently, each window with its own CodeTableWriter, and write the encoded windows in order.
+     * At most twice pool parallelism windows are hold in memory.
+     */
+    private void encodeParallel(VcdiffEngine engine) throws IOException, VcdiffEncodeException {
+        int maxPending = pool.getParallelism() * 2;
+        Deque<WindowEncodeTask> pending = new ArrayDeque<>();
+        Deque<byte[]> pendingWindows = new ArrayDeque<>();
+        Deque<byte[]> freeWindows = new ArrayDeque<>();
+        try {
+            while (true) {
+                if (pending.size() >= maxPending) {
+                    writeWindow(pending.removeFirst());
+                    freeWindows.addLast(pendingWindows.removeFirst());
+                }
+                byte[] window = freeWindows.isEmpty() ? new byte[windowSize] : freeWindows.removeFirst();
+                int len = readWindow(window);
+                if (len <= 0) {
+                    break;
+                }
+                WindowEncodeTask task = new WindowEncodeTask(engine, window, len, adler32.getValue());
+                pool.execute(task);
+                pending.addLast(task);
+                pendingWindows.addLast(window);
+            }
+            while (!pending.isEmpty()) {
+                writeWindow(pending.removeFirst());
+            }
+        } finally {
+            for (WindowEncodeTask task : pending) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    private void writeWindow(WindowEncodeTask task) throws IOException, VcdiffEncodeException {
+        ByteVector encoded;
+        try {
+            encoded = task.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted when encode window");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+        // checked exceptions are returned by task, to be thrown as they are in serial encoding
+        if (task.ioException != null) {
+            throw task.ioException;
+        }
+        if (task.encodeException != null) {
+            throw task.encodeException;
+        }
+        diff.write(encoded.data(), 0, encoded.size());
+    }
+
+    /**
+     * encode one target window into memory
+     */
+    private class WindowEncodeTask extends RecursiveTask<ByteVector> {
+        private static final long serialVersionUID = 1L;
+
+        private final VcdiffEngine engine;
+        private final byte[] window;
+        private final int len;
+        private final long checksum;
+
+        private IOException ioException;
+        private VcdiffEncodeException encodeException;
+
+        private WindowEncodeTask(VcdiffEngine engine, byte[] window, int len, long checksum) {
+            this.engine = engine;
+            this.window = window;
+            this.len = len;
+            this.checksum = checksum;
+        }
+
+        @Override
+        protected ByteVector compute() {
+            CodeTableWriter windowCoder = newCoder();
+            windowCoder.init(engine.getSourceSize());
+            if (addChecksum) {
+                windowCoder.addChecksum(checksum);
+            }
+            ByteVector out = new ByteVector();
+            try {
+                engine.encode(window, len, lookForTargetMatches, out, windowCoder);
+            } catch (IOException e) {
+                ioException = e;
+            } catch (VcdiffEncodeException e) {
+                encodeException = e;
+            }
+            return out;
+        }
+    }
+
     public void setAddChecksum(boolean addChecksum) {
         this.addChecksum = addChecksum;
     }
@@ -100,8 +355,117 @@ public class VcdiffEncoder {
         this.windowSize = windowSize;
     }
 
-    private long computeAdler32(byte[] data, int len) {
-        //TODO: add check sum
-        return 0;
+    /**
+     * Encode target windows concurrently in the pool, the source hash is also built in the pool if no
+     * pre-built dictionary is given. The output is the same as encoding serially.
+     * The pool is not shutdown by encoder.
+     *
+     * @param pool the pool, null for encode serially(the default)
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Compress the data, instructions and addresses sections of windows with the secondary compressor.
+     * The compressor should be registered in {@link SecondaryCompressors} for decoding.
+     *
+     * @param secondaryCompressor the compressor, null for no secondary compression(the default)
+     */
+    public void setSecondaryCompressor(SecondaryCompressor secondaryCompressor) {
+        this.secondaryCompressor = secondaryCompressor;
+    }
+
+    /**
+     * Encode with a bounded source segment for each target window, instead of the whole source.
+     * The segment of a target window is at most sourceWindowSize bytes of the source around the same position,
+     * so data moved farther than about half of the size is not matched.
+     * The source is read once in order and not loaded into memory entirely: the encoder holds the segment,
+     * its hash (one and a half to two and a half times the segment size) and a target window.
+     * The pool, if set, is only used to build the hash of segments.
+     *
+     * @param sourceWindowSize the max size of source segment, 0 for the whole source(the default)
+     * @throws IllegalStateException if the encoder is constructed with a pre-built dictionary
+     */
+    public void setSourceWindowSize(int sourceWindowSize) {
+        if (sourceWindowSize < 0) {
+            throw new IllegalArgumentException("Negative source window size:" + sourceWindowSize);
+        }
+        if (dictionary != null) {
+            throw new IllegalStateException("Source window can not be used with pre-built dictionary");
+        }
+        this.sourceWindowSize = sourceWindowSize;
+    }
+
+    /**
+     * Also encode each window against the target data before it, as a VCD_TARGET window, and write the
+     * smaller encoding. Targets repeating their own earlier data, such as logs and append-only data,
+     * often match it better than the source, and the matches can reach data in earlier windows.
+     * The target history is hashed as it is appended, but windows are encoded twice, so encoding takes
+     * about twice the time.
+     * Decoding VCD_TARGET windows reads back the target, so it needs a random access target stream.
+     * Not used when windows are encoded in a pool.
+     *
+     * @param targetHistorySize the size of target data before a window used as its source segment at least
+     *                          (at most twice the size), 0 for never use target data as source segment(the default)
+     */
+    public void setTargetHistorySize(int targetHistorySize) {
+        if (targetHistorySize < 0) {
+            throw new IllegalArgumentException("Negative target history size:" + targetHistorySize);
+        }
+        this.targetHistorySize = targetHistorySize;
+    }
+
+    /**
+     * Write the interleaved format of open-vcdiff, which the decoder can apply as each window is read,
+     * instead of after the whole window is read. Use a small window size to stream the patch in small pieces.
+     * The format is an extension of the RFC draft standard, supported by open-vcdiff and this library.
+     *
+     * @param interleaved if write the interleaved format, false for the standard format(the default)
+     */
+    public void setInterleaved(boolean interleaved) {
+        this.interleaved = interleaved;
+    }
+
+    /**
+     * Set the encode level, from 1 (fastest) to 9 (smallest patch), the default is 6.
+     * The level of a pre-built dictionary is given when building the dictionary.
+     *
+     * @param level the encode level
+     * @throws IllegalStateException if the encoder is constructed with a pre-built dictionary
+     */
+    public void setLevel(int level) {
+        setLevel(EncodeLevel.of(level));
+    }
+
+    /**
+     * Set the match finding parameters.
+     *
+     * @param level the encode level
+     * @throws IllegalStateException if the encoder is constructed with a pre-built dictionary
+     */
+    public void setLevel(EncodeLevel level) {
+        if (level == null) {
+            throw new NullPointerException();
+        }
+        if (dictionary != null) {
+            throw new IllegalStateException("Level of pre-built dictionary can not be changed");
+        }
+        this.level = level;
+    }
+
+    /**
+     * Read the next target window. With checksum, the Adler32 of window is computed as it is read,
+     * while the data is still in cache, the same as open-vcdiff and xdelta3 compute.
+     *
+     * @return the window size, -1 if reach the end of target
+     */
+    private int readWindow(byte[] window) throws IOException {
+        int len = target.read(window);
+        if (addChecksum && len > 0) {
+            adler32.reset();
+            adler32.update(window, 0, len);
+        }
+        return len;
     }
 }
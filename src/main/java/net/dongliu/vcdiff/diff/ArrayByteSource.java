@@ -0,0 +1,56 @@
+package net.dongliu.vcdiff.diff;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Byte source backed by a byte array.
+ *
+ * @author dongliu
+ */
+public class ArrayByteSource implements ByteSource {
+
+    private final byte[] data;
+
+    private final int size;
+
+    /**
+     * little endian view of data, for read longs
+     */
+    private final ByteBuffer buffer;
+
+    public ArrayByteSource(byte[] data) {
+        this(data, data.length);
+    }
+
+    /**
+     * only the first size bytes of data are used.
+     */
+    public ArrayByteSource(byte[] data, int size) {
+        if (size > data.length) {
+            throw new IllegalArgumentException("size larger than data length:" + size);
+        }
+        this.data = data;
+        this.size = size;
+        this.buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public byte get(long index) {
+        return data[(int) index];
+    }
+
+    @Override
+    public long getLong(long index) {
+        return buffer.getLong((int) index);
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
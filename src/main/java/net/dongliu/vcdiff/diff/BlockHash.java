@@ -1,8 +1,11 @@
 package net.dongliu.vcdiff.diff;
 
 import net.dongliu.vcdiff.exception.VcdiffEncodeException;
+import net.dongliu.vcdiff.utils.Misc;
 
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * A generic hash table which will be used to keep track of byte runs of size K_BLOCK_SIZE
@@ -11,12 +14,27 @@ import java.util.Arrays;
  * @author dongliu
  */
 public class BlockHash {
-    // Block size; must be a power of two.
+    // Default block size; must be a power of two.
     public static final int K_BLOCK_SIZE = 16;
 
-    private Pointer sourceData;
+    /**
+     * bytes compared by one mismatch call when extending a match to the left
+     */
+    private static final int MISMATCH_CHUNK = 64;
 
-    private int sourceSize;
+    /**
+     * hash values are less than HASH_BASE, a larger table has slots never used
+     */
+    private static final int MAX_TABLE_SIZE = RollingHash.HASH_BASE;
+
+    /**
+     * the max number of blocks, as blocks are indexed by int
+     */
+    private static final int MAX_BLOCKS = Integer.MAX_VALUE - 8;
+
+    private ByteSource sourceData;
+
+    private long sourceSize;
 
     /**
      * the hash table
@@ -35,23 +53,41 @@ public class BlockHash {
 
     private int hashTableMask;
 
-    private int startingOffset;
+    /**
+     * the address of source data, added to the source offset of matches
+     */
+    private long startingOffset;
 
     private int lastBlockAdded;
 
+    /**
+     * Block size; must be a power of two, and not less than 8.
+     */
+    private final int blockSize;
+
     /**
      * max block num examined when conflicted
      */
-    private static final int MAX_PROBES = 16;
+    private final int maxProbes;
+
+    private final int maxMatchesToCheck;
 
-    private static final int MAX_MATCHES_TO_CHECK = (K_BLOCK_SIZE >= 32) ? 32 : (32 * (32 / K_BLOCK_SIZE));
+    private final RollingHash rollingHash;
 
-    public BlockHash(Pointer sourceData, int sourceSize, int startingOffset) {
+    public BlockHash(ByteSource sourceData, long startingOffset) {
+        this(sourceData, startingOffset, EncodeLevel.DEFAULT);
+    }
+
+    public BlockHash(ByteSource sourceData, long startingOffset, EncodeLevel level) {
         this.sourceData = sourceData;
-        this.sourceSize = sourceSize;
+        this.sourceSize = sourceData.size();
         this.hashTableMask = 0;
         this.startingOffset = startingOffset;
         this.lastBlockAdded = -1;
+        this.blockSize = level.getBlockSize();
+        this.maxProbes = level.getMaxProbes();
+        this.maxMatchesToCheck = level.getMaxMatchesToCheck();
+        this.rollingHash = new RollingHash(blockSize);
     }
 
     public void init(boolean populateHashTable) throws VcdiffEncodeException {
@@ -71,36 +107,102 @@ public class BlockHash {
     }
 
     private int numberOfBlocks() {
-        return sourceSize / K_BLOCK_SIZE;
+        return (int) (sourceSize / blockSize);
     }
 
-    public static BlockHash createDictionaryHash(Pointer dictionaryData, int dictionarySize)
+    public static BlockHash createDictionaryHash(ByteSource dictionaryData)
             throws VcdiffEncodeException {
-        BlockHash newDictionaryHash = new BlockHash(dictionaryData, dictionarySize, 0);
+        return createDictionaryHash(dictionaryData, EncodeLevel.DEFAULT);
+    }
+
+    public static BlockHash createDictionaryHash(ByteSource dictionaryData, EncodeLevel level)
+            throws VcdiffEncodeException {
+        BlockHash newDictionaryHash = new BlockHash(dictionaryData, 0, level);
         newDictionaryHash.init(true);
+        // no more blocks will be added to dictionary hash
+        newDictionaryHash.lastBlockTable = null;
+        return newDictionaryHash;
+    }
+
+    /**
+     * create dictionary hash, blocks are hashed and added using the pool.
+     * The result is the same as {@link #createDictionaryHash(ByteSource)}.
+     */
+    public static BlockHash createDictionaryHash(ByteSource dictionaryData, ForkJoinPool pool)
+            throws VcdiffEncodeException {
+        return createDictionaryHash(dictionaryData, EncodeLevel.DEFAULT, pool);
+    }
+
+    public static BlockHash createDictionaryHash(ByteSource dictionaryData, EncodeLevel level, ForkJoinPool pool)
+            throws VcdiffEncodeException {
+        BlockHash newDictionaryHash = new BlockHash(dictionaryData, 0, level);
+        newDictionaryHash.init(false);
+        newDictionaryHash.addAllBlocks(pool);
+        // no more blocks will be added to dictionary hash
+        newDictionaryHash.lastBlockTable = null;
         return newDictionaryHash;
     }
 
-    public static BlockHash createTargetHash(Pointer targetData, int targetSize, int dictionarySize)
+    public static BlockHash createTargetHash(ByteSource targetData, long dictionarySize)
             throws VcdiffEncodeException {
-        BlockHash newTargetHash = new BlockHash(targetData, targetSize, dictionarySize);
+        return createTargetHash(targetData, dictionarySize, EncodeLevel.DEFAULT);
+    }
+
+    /**
+     * create an empty hash for data growing in place, the tables are sized for all of data.
+     * Use {@link #extend(long)} to add the data grown.
+     */
+    static BlockHash createGrowingHash(ByteSource data, EncodeLevel level) throws VcdiffEncodeException {
+        BlockHash newHash = new BlockHash(data, 0, level);
+        newHash.init(false);
+        newHash.sourceSize = 0;
+        return newHash;
+    }
+
+    /**
+     * the data of a growing hash now has size bytes, add the blocks grown.
+     */
+    void extend(long size) throws VcdiffEncodeException {
+        if (size < sourceSize || size > sourceData.size()) {
+            throw new VcdiffEncodeException("invalid size of growing data:" + size);
+        }
+        sourceSize = size;
+        if (size - nextIndexToAdd() >= blockSize) {
+            addAllBlocksThroughIndex(size);
+        }
+    }
+
+    /**
+     * remove all blocks of a growing hash, the data is empty again.
+     */
+    void clear() {
+        Arrays.fill(hashTable, -1);
+        Arrays.fill(nextBlockTable, -1);
+        Arrays.fill(lastBlockTable, -1);
+        lastBlockAdded = -1;
+        sourceSize = 0;
+    }
+
+    public static BlockHash createTargetHash(ByteSource targetData, long dictionarySize, EncodeLevel level)
+            throws VcdiffEncodeException {
+        BlockHash newTargetHash = new BlockHash(targetData, dictionarySize, level);
         newTargetHash.init(false);
         return newTargetHash;
     }
 
-    private int calcTableSize(int sourceSize) throws VcdiffEncodeException {
-        // Over allocate the hash table by making it the same size (in bytes) as the source data.
+    private int calcTableSize(long sourceSize) throws VcdiffEncodeException {
+        if (sourceSize / blockSize > MAX_BLOCKS) {
+            throw new VcdiffEncodeException("too large data size:" + sourceSize);
+        }
+        // Over allocate the hash table by making it the same size (in bytes) as the source data,
+        // up to MAX_TABLE_SIZE slots.
         int intSize = 4;
-        int minSize = (sourceSize / intSize) + 1;
+        long minSize = Math.min((sourceSize / intSize) + 1, MAX_TABLE_SIZE);
         int tableSize = 1;
         // Find the smallest power of 2 that is >= min_size, and assign
         // that value to table_size.
         while (tableSize < minSize) {
             tableSize <<= 1;
-            // Guard against an infinite loop
-            if (tableSize <= 0) {
-                throw new VcdiffEncodeException("too large data size:" + sourceSize);
-            }
         }
         return tableSize;
     }
@@ -114,7 +216,7 @@ public class BlockHash {
     public void addBlock(int hashValue) throws VcdiffEncodeException {
         // The initial value of last_block_added_ is -1.
         int blockNumber = lastBlockAdded + 1;
-        int totalBlocks = sourceSize / K_BLOCK_SIZE;  // round down
+        int totalBlocks = numberOfBlocks();  // round down
         if (blockNumber >= totalBlocks) {
             throw new VcdiffEncodeException("larger or equal than total block num:" + blockNumber);
         }
@@ -122,6 +224,21 @@ public class BlockHash {
             throw new VcdiffEncodeException("next block should be -1, but:" + nextBlockTable[blockNumber]);
         }
         int hashTableIndex = getHashTableIndex(hashValue);
+        int firstMatchingBlock = hashTable[hashTableIndex];
+        if (firstMatchingBlock >= 0) {
+            int lastMatchingBlock = lastBlockTable[firstMatchingBlock];
+            if (nextBlockTable[lastMatchingBlock] != -1) {
+                throw new VcdiffEncodeException("next block should be -1, but:" + nextBlockTable[lastMatchingBlock]);
+            }
+        }
+        linkBlock(blockNumber, hashTableIndex);
+        lastBlockAdded = blockNumber;
+    }
+
+    /**
+     * add block to the end of hash chain of the hash table slot
+     */
+    private void linkBlock(int blockNumber, int hashTableIndex) {
         int firstMatchingBlock = hashTable[hashTableIndex];
         if (firstMatchingBlock < 0) {
             // This is the first entry with this hash value
@@ -130,13 +247,9 @@ public class BlockHash {
         } else {
             // Add this entry at the end of the chain of matching blocks
             int lastMatchingBlock = lastBlockTable[firstMatchingBlock];
-            if (nextBlockTable[lastMatchingBlock] != -1) {
-                throw new VcdiffEncodeException("next block should be -1, but:" + nextBlockTable[lastMatchingBlock]);
-            }
             nextBlockTable[lastMatchingBlock] = blockNumber;
             lastBlockTable[firstMatchingBlock] = blockNumber;
         }
-        lastBlockAdded = blockNumber;
     }
 
     private int getHashTableIndex(int hashValue) {
@@ -154,45 +267,85 @@ public class BlockHash {
      *
      * @throws VcdiffEncodeException
      */
-    public void addAllBlocksThroughIndex(int endIndex) throws VcdiffEncodeException {
+    public void addAllBlocksThroughIndex(long endIndex) throws VcdiffEncodeException {
         if (endIndex > sourceSize) {
             throw new ArrayIndexOutOfBoundsException("exceed data size:" + endIndex);
         }
 
-        int lastIndexAdded = lastBlockAdded * K_BLOCK_SIZE;
+        long lastIndexAdded = (long) lastBlockAdded * blockSize;
         if (endIndex <= lastIndexAdded) {
             throw new VcdiffEncodeException("must be larger than last added, which is:" + lastIndexAdded);
         }
-        int endLimit = endIndex;
+        long endLimit = endIndex;
 
         // Don't allow reading any indices at or past source_size_.
-        int lastLegalHashIndex = sourceSize - K_BLOCK_SIZE;
+        long lastLegalHashIndex = sourceSize - blockSize;
         if (endLimit > lastLegalHashIndex) {
             endLimit = lastLegalHashIndex + 1;
         }
 
-        int begin = nextIndexToAdd();
-        RollingHash rollingHash = new RollingHash(K_BLOCK_SIZE);
+        long begin = nextIndexToAdd();
         while (begin < endLimit) {
-            addBlock(rollingHash.hash(sourceData.slice(begin)));
-            begin += K_BLOCK_SIZE;
+            addBlock(rollingHash.hash(sourceData, begin));
+            begin += blockSize;
         }
     }
 
-    private int nextIndexToAdd() {
-        return (lastBlockAdded + 1) * K_BLOCK_SIZE;
+    /**
+     * add all blocks to an empty hash using the pool.
+     * Blocks are hashed concurrently by block ranges, and grouped by ranges of hash table slots, in block order.
+     * Then each task links the blocks of a slot range, so the hash chains are the same as blocks added one by one.
+     */
+    public void addAllBlocks(ForkJoinPool pool) throws VcdiffEncodeException {
+        if (lastBlockAdded != -1) {
+            throw new VcdiffEncodeException("blocks already added, last added:" + lastBlockAdded);
+        }
+        int totalBlocks = numberOfBlocks();
+        int[] blockHashes = new int[totalBlocks];
+        pool.invoke(new HashBlocksTask(blockHashes, 0, totalBlocks));
+
+        // about 4 slot ranges per thread, the slots of range i are [i << rangeShift, (i + 1) << rangeShift)
+        int rangeBits = 32 - Integer.numberOfLeadingZeros(pool.getParallelism() * 4 - 1);
+        int rangeShift = Math.max(0, Integer.numberOfTrailingZeros(hashTable.length) - rangeBits);
+        int ranges = hashTable.length >>> rangeShift;
+        // counting sort of block numbers by slot range, blocks of range i are [rangeStarts[i], rangeStarts[i + 1])
+        int[] rangeStarts = new int[ranges + 1];
+        for (int hashValue : blockHashes) {
+            rangeStarts[(getHashTableIndex(hashValue) >>> rangeShift) + 1]++;
+        }
+        for (int i = 0; i < ranges; i++) {
+            rangeStarts[i + 1] += rangeStarts[i];
+        }
+        int[] sortedBlocks = new int[totalBlocks];
+        int[] nextPositions = Arrays.copyOf(rangeStarts, ranges);
+        for (int blockNumber = 0; blockNumber < totalBlocks; blockNumber++) {
+            int range = getHashTableIndex(blockHashes[blockNumber]) >>> rangeShift;
+            sortedBlocks[nextPositions[range]++] = blockNumber;
+        }
+        pool.invoke(new LinkBlocksTask(blockHashes, sortedBlocks, rangeStarts, 0, ranges));
+        lastBlockAdded = totalBlocks - 1;
     }
 
-    private boolean blockContentsMatch(Pointer block1, Pointer block2) {
-        return Pointer.compare(block1, block2, K_BLOCK_SIZE);
+    private long nextIndexToAdd() {
+        return (long) (lastBlockAdded + 1) * blockSize;
     }
 
+    private boolean blockContentsMatch(ByteSource target, int targetOffset, long sourceOffset) {
+        // blockSize is a power of two not less than 8
+        for (int i = 0; i < blockSize; i += 8) {
+            if (target.getLong(targetOffset + i) != sourceData.getLong(sourceOffset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-    private int skipNonMatchingBlocks(int blockNumber, Pointer block) {
+
+    private int skipNonMatchingBlocks(int blockNumber, ByteSource target, int targetOffset) {
         int probes = 0;
         while ((blockNumber >= 0) &&
-                !blockContentsMatch(block, sourceData.slice(blockNumber * K_BLOCK_SIZE))) {
-            if (++probes > MAX_PROBES) {
+                !blockContentsMatch(target, targetOffset, (long) blockNumber * blockSize)) {
+            if (++probes > maxProbes) {
                 return -1;  // Avoid too much chaining
             }
             blockNumber = nextBlockTable[blockNumber];
@@ -200,30 +353,48 @@ public class BlockHash {
         return blockNumber;
     }
 
-    private int firstMatchingBlock(int hashValue, Pointer block) {
+    private int firstMatchingBlock(int hashValue, ByteSource target, int targetOffset) {
         int hash = getHashTableIndex(hashValue);
-        return skipNonMatchingBlocks(hashTable[hash], block);
+        return skipNonMatchingBlocks(hashTable[hash], target, targetOffset);
     }
 
-    private int nextMatchingBlock(int blockNumber, Pointer block) throws VcdiffEncodeException {
+    private int nextMatchingBlock(int blockNumber, ByteSource target, int targetOffset)
+            throws VcdiffEncodeException {
         if (blockNumber >= numberOfBlocks()) {
             throw new VcdiffEncodeException("block number larger than block counts:" + blockNumber);
         }
-        return skipNonMatchingBlocks(nextBlockTable[blockNumber], block);
+        return skipNonMatchingBlocks(nextBlockTable[blockNumber], target, targetOffset);
     }
 
     /**
      * Returns the number of bytes to the left of source_match_start
      * that match the corresponding bytes to the left of target_match_start.
+     * Compares 8 bytes a time, the bytes nearest to match start are the high bytes of little endian longs.
      */
-    private int matchingBytesToLeft(Pointer sourceMatchStart, Pointer targetMatchStart, int maxBytes) {
-        Pointer sourcePtr = sourceMatchStart.copy();
-        Pointer targetPtr = targetMatchStart.copy();
+    int matchingBytesToLeft(long sourceMatchStart, ByteSource target, int targetMatchStart,
+                            int maxBytes) {
         int bytesFound = 0;
+        if (Misc.hasFastMismatch() && sourceData instanceof ArrayByteSource && target instanceof ArrayByteSource) {
+            // skip equal chunks with vectorized mismatch, then find the exact position below
+            byte[] sourceArray = ((ArrayByteSource) sourceData).getData();
+            byte[] targetArray = ((ArrayByteSource) target).getData();
+            while (bytesFound + MISMATCH_CHUNK <= maxBytes
+                    && Misc.mismatch(sourceArray, (int) sourceMatchStart - bytesFound - MISMATCH_CHUNK,
+                    targetArray, targetMatchStart - bytesFound - MISMATCH_CHUNK, MISMATCH_CHUNK) < 0) {
+                bytesFound += MISMATCH_CHUNK;
+            }
+        }
+        while (bytesFound + 8 <= maxBytes) {
+            long diff = sourceData.getLong(sourceMatchStart - bytesFound - 8)
+                    ^ target.getLong(targetMatchStart - bytesFound - 8);
+            if (diff != 0) {
+                return bytesFound + (Long.numberOfLeadingZeros(diff) >>> 3);
+            }
+            bytesFound += 8;
+        }
         while (bytesFound < maxBytes) {
-            sourcePtr.down();
-            targetPtr.down();
-            if (sourcePtr.get(0) != targetPtr.get(0)) {
+            if (sourceData.get(sourceMatchStart - bytesFound - 1)
+                    != target.get(targetMatchStart - bytesFound - 1)) {
                 break;
             }
             ++bytesFound;
@@ -234,47 +405,67 @@ public class BlockHash {
     /**
      * Returns the number of bytes starting at source_match_end
      * that match the corresponding bytes starting at target_match_end.
+     * Compares 8 bytes a time, the first mismatched byte is the lowest non-zero byte of xor of little endian longs.
      */
-    private int matchingBytesToRight(Pointer sourceMatchStart, Pointer targetMatchStart, int maxBytes) {
-        Pointer sourcePtr = sourceMatchStart.copy();
-        Pointer targetPtr = targetMatchStart.copy();
+    int matchingBytesToRight(long sourceMatchStart, ByteSource target, int targetMatchStart,
+                             int maxBytes) {
+        if (Misc.hasFastMismatch() && sourceData instanceof ArrayByteSource && target instanceof ArrayByteSource) {
+            int index = Misc.mismatch(((ArrayByteSource) sourceData).getData(), (int) sourceMatchStart,
+                    ((ArrayByteSource) target).getData(), targetMatchStart, maxBytes);
+            return index < 0 ? maxBytes : index;
+        }
         int bytesFound = 0;
-        while ((bytesFound < maxBytes) && (sourcePtr.get(0) == targetPtr.get(0))) {
+        while (bytesFound + 8 <= maxBytes) {
+            long diff = sourceData.getLong(sourceMatchStart + bytesFound)
+                    ^ target.getLong(targetMatchStart + bytesFound);
+            if (diff != 0) {
+                return bytesFound + (Long.numberOfTrailingZeros(diff) >>> 3);
+            }
+            bytesFound += 8;
+        }
+        while ((bytesFound < maxBytes) &&
+                (sourceData.get(sourceMatchStart + bytesFound) == target.get(targetMatchStart + bytesFound))) {
             ++bytesFound;
-            sourcePtr.up();
-            targetPtr.up();
         }
         return bytesFound;
     }
 
-    public void findBestMatch(int hashValue, Pointer targetCandidate, Pointer target, int targetSize,
-                              Match bestMatch) throws VcdiffEncodeException {
+    /**
+     * find the best match for the block at targetCandidate.
+     *
+     * @param hashValue       hash of the block
+     * @param target          the target data
+     * @param targetCandidate offset of the block in target
+     * @param unencodedStart  offset of the first byte not encoded yet, the match not extends before it
+     * @param unencodedSize   bytes count from unencodedStart to the end of target
+     * @param bestMatch       updated if a better match found, the target offset is relative to unencodedStart
+     */
+    public void findBestMatch(int hashValue, ByteSource target, int targetCandidate, int unencodedStart,
+                              int unencodedSize, Match bestMatch) throws VcdiffEncodeException {
         int matchCounter = 0;
-        for (int blockNumber = firstMatchingBlock(hashValue, targetCandidate);
-             (blockNumber >= 0) && ++matchCounter < MAX_MATCHES_TO_CHECK;
-             blockNumber = nextMatchingBlock(blockNumber, targetCandidate)) {
-            int sourceMatchOffset = blockNumber * K_BLOCK_SIZE;
-            int sourceMatchEnd = sourceMatchOffset + K_BLOCK_SIZE;
+        for (int blockNumber = firstMatchingBlock(hashValue, target, targetCandidate);
+             (blockNumber >= 0) && ++matchCounter < maxMatchesToCheck;
+             blockNumber = nextMatchingBlock(blockNumber, target, targetCandidate)) {
+            long sourceMatchOffset = (long) blockNumber * blockSize;
+            long sourceMatchEnd = sourceMatchOffset + blockSize;
 
-            int targetMatchOffset = targetCandidate.offset() - target.offset();
-            int targetMatchEnd = targetMatchOffset + K_BLOCK_SIZE;
+            int targetMatchOffset = targetCandidate - unencodedStart;
+            int targetMatchEnd = targetMatchOffset + blockSize;
 
-            int matchSize = K_BLOCK_SIZE;
+            int matchSize = blockSize;
             // Extend match start towards beginning of unencoded data
-            int limitBytesToLeft = Math.min(sourceMatchOffset, targetMatchOffset);
-            int matchingBytesToLeft = matchingBytesToLeft(
-                    sourceData.slice(sourceMatchOffset),
-                    target.slice(targetMatchOffset),
-                    limitBytesToLeft);
+            int limitBytesToLeft = (int) Math.min(sourceMatchOffset, targetMatchOffset);
+            int matchingBytesToLeft = matchingBytesToLeft(sourceMatchOffset,
+                    target, unencodedStart + targetMatchOffset, limitBytesToLeft);
             sourceMatchOffset -= matchingBytesToLeft;
             targetMatchOffset -= matchingBytesToLeft;
             matchSize += matchingBytesToLeft;
             // Extend match end towards end of unencoded data
-            int sourceBytesToRight = sourceSize - sourceMatchEnd;
-            int targetBytesToRight = targetSize - targetMatchEnd;
-            int limitBytesToRight = Math.min(sourceBytesToRight, targetBytesToRight);
-            matchSize += matchingBytesToRight(sourceData.slice(sourceMatchEnd),
-                    target.slice(targetMatchEnd), limitBytesToRight);
+            long sourceBytesToRight = sourceSize - sourceMatchEnd;
+            int targetBytesToRight = unencodedSize - targetMatchEnd;
+            int limitBytesToRight = (int) Math.min(sourceBytesToRight, targetBytesToRight);
+            matchSize += matchingBytesToRight(sourceMatchEnd,
+                    target, unencodedStart + targetMatchEnd, limitBytesToRight);
             // Update in/out parameter if the best match found was better
             // than any match already stored in *best_match.
             bestMatch.replaceIfBetterMatch(matchSize, sourceMatchOffset + startingOffset,
@@ -282,12 +473,80 @@ public class BlockHash {
         }
     }
 
+    public int getBlockSize() {
+        return blockSize;
+    }
+
     public void addOneIndexHash(int index, int hashValue) throws VcdiffEncodeException {
         if (index == nextIndexToAdd()) {
             addBlock(hashValue);
         }
     }
 
+    /**
+     * compute hash values of blocks [from, to)
+     */
+    private class HashBlocksTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int THRESHOLD = 1 << 16;
+        private final int[] blockHashes;
+        private final int from;
+        private final int to;
+
+        private HashBlocksTask(int[] blockHashes, int from, int to) {
+            this.blockHashes = blockHashes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    blockHashes[i] = rollingHash.hash(sourceData, (long) i * blockSize);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new HashBlocksTask(blockHashes, from, middle), new HashBlocksTask(blockHashes, middle, to));
+        }
+    }
+
+    /**
+     * link the blocks of slot ranges [from, to), split the ranges into parts.
+     * A block's chain entries are only touched by the task owns its slot, so tasks can run concurrently.
+     */
+    private class LinkBlocksTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int[] blockHashes;
+        private final int[] sortedBlocks;
+        private final int[] rangeStarts;
+        private final int from;
+        private final int to;
+
+        private LinkBlocksTask(int[] blockHashes, int[] sortedBlocks, int[] rangeStarts, int from, int to) {
+            this.blockHashes = blockHashes;
+            this.sortedBlocks = sortedBlocks;
+            this.rangeStarts = rangeStarts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                for (int i = rangeStarts[from]; i < rangeStarts[to]; i++) {
+                    int blockNumber = sortedBlocks[i];
+                    linkBlock(blockNumber, getHashTableIndex(blockHashes[blockNumber]));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new LinkBlocksTask(blockHashes, sortedBlocks, rangeStarts, from, middle),
+                    new LinkBlocksTask(blockHashes, sortedBlocks, rangeStarts, middle, to));
+        }
+    }
+
     /**
      * a binary data match
      */
@@ -296,7 +555,7 @@ public class BlockHash {
         /**
          * the offset from source beginning
          */
-        private int sourceOffset;
+        private long sourceOffset;
         /**
          * the offset from target beginning. if valid, targetOffset = sourceOffset - source.len
          */
@@ -307,7 +566,24 @@ public class BlockHash {
             sourceOffset = targetOffset = -1;
         }
 
-        private void replaceIfBetterMatch(int size, int sourceOffset, int targetOffset) {
+        /**
+         * clear the match, so it can be reused
+         */
+        public void reset() {
+            size = 0;
+            sourceOffset = targetOffset = -1;
+        }
+
+        /**
+         * copy the match from other
+         */
+        public void set(Match other) {
+            this.size = other.size;
+            this.sourceOffset = other.sourceOffset;
+            this.targetOffset = other.targetOffset;
+        }
+
+        private void replaceIfBetterMatch(int size, long sourceOffset, int targetOffset) {
             if (size > this.size) {
                 this.size = size;
                 this.sourceOffset = sourceOffset;
@@ -319,7 +595,7 @@ public class BlockHash {
             return size;
         }
 
-        public int getSourceOffset() {
+        public long getSourceOffset() {
             return sourceOffset;
         }
 
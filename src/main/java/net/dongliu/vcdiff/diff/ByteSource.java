@@ -0,0 +1,25 @@
+package net.dongliu.vcdiff.diff;
+
+/**
+ * Random access, read only bytes used as source of block hash.
+ * Positions are long, so a source can be larger than 2G bytes.
+ *
+ * @author dongliu
+ */
+public interface ByteSource {
+
+    /**
+     * get the byte at index
+     */
+    byte get(long index);
+
+    /**
+     * get 8 bytes start from index as a little endian long, used to compare data word by word.
+     */
+    long getLong(long index);
+
+    /**
+     * the data size
+     */
+    long size();
+}
@@ -0,0 +1,134 @@
+package net.dongliu.vcdiff.diff;
+
+/**
+ * Parameters of match finding, trade encoding speed for patch size.
+ * Use {@link #of(int)} for presets from 1 (fastest) to 9 (smallest patch), or the constructor for custom settings.
+ * The default level 6 is the same as open-vcdiff.
+ *
+ * @author dongliu
+ */
+public class EncodeLevel {
+
+    public static final int MIN_LEVEL = 1;
+    public static final int MAX_LEVEL = 9;
+    public static final int DEFAULT_LEVEL = 6;
+
+    /**
+     * presets of level 1 - 9: block size, max probes, max matches to check, minimum match size, lazy depth
+     */
+    private static final int[][] PRESETS = {
+            {32, 4, 8, 64, 0},
+            {32, 8, 16, 64, 0},
+            {32, 8, 32, 48, 0},
+            {16, 8, 32, 32, 0},
+            {16, 12, 48, 32, 0},
+            {16, 16, 64, 32, 0},
+            {16, 32, 128, 24, 2},
+            {16, 64, 256, 24, 4},
+            {8, 64, 256, 24, 8},
+    };
+
+    private static final EncodeLevel[] LEVELS = new EncodeLevel[PRESETS.length];
+
+    static {
+        for (int i = 0; i < PRESETS.length; i++) {
+            int[] preset = PRESETS[i];
+            LEVELS[i] = new EncodeLevel(preset[0], preset[1], preset[2], preset[3], preset[4]);
+        }
+    }
+
+    public static final EncodeLevel DEFAULT = of(DEFAULT_LEVEL);
+
+    /**
+     * bytes of the blocks hashed, matches are found by blocks
+     */
+    private final int blockSize;
+    /**
+     * max blocks with different content skipped in a hash chain
+     */
+    private final int maxProbes;
+    /**
+     * max matching blocks in a hash chain examined for the best match
+     */
+    private final int maxMatchesToCheck;
+    /**
+     * matches shorter than this are not worth a COPY
+     */
+    private final int minimumMatchSize;
+    /**
+     * how many following positions are tried for a better match before a match is encoded
+     */
+    private final int lazyDepth;
+
+    /**
+     * @param blockSize         must be a power of two, and not less than 8
+     * @param maxProbes         max blocks with different content skipped in a hash chain
+     * @param maxMatchesToCheck max matching blocks examined for the best match
+     * @param minimumMatchSize  min size of match encoded as COPY, not less than block size
+     */
+    public EncodeLevel(int blockSize, int maxProbes, int maxMatchesToCheck, int minimumMatchSize) {
+        this(blockSize, maxProbes, maxMatchesToCheck, minimumMatchSize, 0);
+    }
+
+    /**
+     * @param blockSize         must be a power of two, and not less than 8
+     * @param maxProbes         max blocks with different content skipped in a hash chain
+     * @param maxMatchesToCheck max matching blocks examined for the best match
+     * @param minimumMatchSize  min size of match encoded as COPY, not less than block size
+     * @param lazyDepth         following positions tried for a better match, 0 for greedy matching
+     */
+    public EncodeLevel(int blockSize, int maxProbes, int maxMatchesToCheck, int minimumMatchSize,
+                       int lazyDepth) {
+        if (blockSize < 8 || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException("block size should be a power of two not less than 8:" + blockSize);
+        }
+        if (maxProbes < 0 || maxMatchesToCheck < 1) {
+            throw new IllegalArgumentException("invalid max probes / matches to check:" + maxProbes
+                    + "/" + maxMatchesToCheck);
+        }
+        if (minimumMatchSize < blockSize) {
+            throw new IllegalArgumentException("minimum match size should not be less than block size:"
+                    + minimumMatchSize);
+        }
+        if (lazyDepth < 0) {
+            throw new IllegalArgumentException("negative lazy depth:" + lazyDepth);
+        }
+        this.blockSize = blockSize;
+        this.maxProbes = maxProbes;
+        this.maxMatchesToCheck = maxMatchesToCheck;
+        this.minimumMatchSize = minimumMatchSize;
+        this.lazyDepth = lazyDepth;
+    }
+
+    /**
+     * the preset of level
+     *
+     * @param level from 1 (fastest) to 9 (smallest patch)
+     */
+    public static EncodeLevel of(int level) {
+        if (level < MIN_LEVEL || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("level should be in [" + MIN_LEVEL + ", " + MAX_LEVEL + "]:" + level);
+        }
+        return LEVELS[level - 1];
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getMaxProbes() {
+        return maxProbes;
+    }
+
+    public int getMaxMatchesToCheck() {
+        return maxMatchesToCheck;
+    }
+
+    public int getMinimumMatchSize() {
+        return minimumMatchSize;
+    }
+
+    public int getLazyDepth() {
+        return lazyDepth;
+    }
+}
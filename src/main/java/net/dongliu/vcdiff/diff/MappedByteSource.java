@@ -0,0 +1,87 @@
+package net.dongliu.vcdiff.diff;
+
+import net.dongliu.vcdiff.utils.ByteBufferUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Byte source backed by a memory mapped file, so the data need not be loaded into heap, and the pages can be shared
+ * by all processes which map the same file.
+ * The file is mapped in several segments, the mapping is released when close.
+ *
+ * @author dongliu
+ */
+public class MappedByteSource implements ByteSource, Closeable {
+
+    /**
+     * each segment maps 1G bytes
+     */
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private final ByteBuffer[] segments;
+
+    private final long size;
+
+    /**
+     * map the whole file. The channel can be closed after the source is created.
+     */
+    public MappedByteSource(FileChannel channel) throws IOException {
+        this(channel, 0, channel.size());
+    }
+
+    /**
+     * map the file region [position, position + size). The channel can be closed after the source is created.
+     */
+    public MappedByteSource(FileChannel channel, long position, long size) throws IOException {
+        this.size = size;
+        int segmentNum = size == 0 ? 0 : (int) ((size - 1) >>> SEGMENT_SHIFT) + 1;
+        this.segments = new ByteBuffer[segmentNum];
+        for (int i = 0; i < segmentNum; i++) {
+            long offset = (long) i << SEGMENT_SHIFT;
+            long segmentSize = Math.min(size - offset, 1L << SEGMENT_SHIFT);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + offset, segmentSize)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    @Override
+    public byte get(long index) {
+        return segments[(int) (index >>> SEGMENT_SHIFT)].get((int) (index & SEGMENT_MASK));
+    }
+
+    @Override
+    public long getLong(long index) {
+        ByteBuffer segment = segments[(int) (index >>> SEGMENT_SHIFT)];
+        int segmentIndex = (int) (index & SEGMENT_MASK);
+        if (segmentIndex + 8 <= segment.limit()) {
+            return segment.getLong(segmentIndex);
+        }
+        // cross segments
+        long l = 0;
+        for (int i = 7; i >= 0; i--) {
+            l = (l << 8) | (get(index + i) & 0xff);
+        }
+        return l;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    /**
+     * unmap the file. The source must not be used after closed.
+     */
+    @Override
+    public void close() throws IOException {
+        for (int i = 0; i < segments.length; i++) {
+            ByteBufferUtils.free(segments[i]);
+            segments[i] = null;
+        }
+    }
+}
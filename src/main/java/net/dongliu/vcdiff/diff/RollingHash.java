@@ -48,6 +48,20 @@ public class RollingHash {
         return h;
     }
 
+    /**
+     * Compute a hash of the window [offset, offset + windowSize) of source.
+     *
+     * @param source the data
+     * @param offset the window start
+     */
+    public int hash(ByteSource source, long offset) {
+        int h = 0;
+        for (int i = 0; i < windowSize; ++i) {
+            h = hashStep(h, source.get(offset + i));
+        }
+        return h;
+    }
+
     private int hashStep(int partialHash, byte nextByte) {
         return modBase((partialHash * MULTIPLIER) + (nextByte & 0XFF));
     }
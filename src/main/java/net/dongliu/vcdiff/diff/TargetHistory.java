@@ -0,0 +1,87 @@
+package net.dongliu.vcdiff.diff;
+
+import net.dongliu.vcdiff.exception.VcdiffEncodeException;
+
+/**
+ * The recent target data encoded and its hash, used as source segment of VCD_TARGET windows.
+ * It holds at least the last size bytes of target (or all of target if less), and at most twice size.
+ * Windows appended are hashed incrementally; when the buffer is full, the last size bytes are moved to its
+ * head and hashed again, which happens once at most every size bytes appended.
+ *
+ * @author dongliu
+ */
+public class TargetHistory {
+
+    private final int size;
+
+    private final byte[] buffer;
+
+    private final EncodeLevel level;
+
+    private BlockHash hash;
+
+    /**
+     * the target position of buffer[0]
+     */
+    private long start;
+
+    /**
+     * the number of target bytes in buffer
+     */
+    private int length;
+
+    /**
+     * @param size  the size of target data kept at least
+     * @param level the encode level, the same as the one encoding against source
+     */
+    public TargetHistory(int size, EncodeLevel level) {
+        if (size <= 0 || size > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("invalid target history size:" + size);
+        }
+        this.size = size;
+        this.buffer = new byte[size * 2];
+        this.level = level;
+    }
+
+    /**
+     * append the target window just encoded
+     */
+    public void append(byte[] window, int len) throws VcdiffEncodeException {
+        if (hash == null) {
+            hash = BlockHash.createGrowingHash(new ArrayByteSource(buffer), level);
+        }
+        if (length + len <= buffer.length) {
+            System.arraycopy(window, 0, buffer, length, len);
+            length += len;
+            hash.extend(length);
+            return;
+        }
+        // keep the last size bytes of target
+        int keep = Math.min(length, Math.max(0, size - len));
+        int copy = Math.min(len, size);
+        System.arraycopy(buffer, length - keep, buffer, 0, keep);
+        System.arraycopy(window, len - copy, buffer, keep, copy);
+        start += length + len - keep - copy;
+        length = keep + copy;
+        hash.clear();
+        hash.extend(length);
+    }
+
+    /**
+     * an engine to encode the next window against the history, valid until the next append
+     */
+    public VcdiffEngine engine() {
+        return new VcdiffEngine(new ArrayByteSource(buffer, length), hash, level);
+    }
+
+    /**
+     * the target position of history
+     */
+    public long start() {
+        return start;
+    }
+
+    public int length() {
+        return length;
+    }
+}
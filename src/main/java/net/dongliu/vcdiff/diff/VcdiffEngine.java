@@ -5,30 +5,61 @@ import net.dongliu.vcdiff.vc.CodeTableWriter;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
 
 /**
- * generate vcdiff
+ * generate vcdiff.
+ * The engine only reads the source and its hash once initialized, so one engine can encode
+ * many targets concurrently.
  *
  * @author dongliu
  */
 public class VcdiffEngine {
 
-    private Pointer sourcePointer;
+    private final ByteSource source;
 
-    private int sourceSize;
+    private final long sourceSize;
 
     private BlockHash blockHash;
 
-    private static final int MINIMUM_MATCH_SIZE = 32;
+    private final EncodeLevel level;
 
-    public VcdiffEngine(Pointer pointer, int size) {
-        this.sourcePointer = pointer;
-        this.sourceSize = size;
+    /**
+     * Runs of the same byte in unmatched data not shorter than this are encoded as RUN instead of ADD.
+     * A RUN costs about 3 bytes, and splits the ADD around it into two instructions.
+     */
+    private static final int MINIMUM_RUN_SIZE = 8;
+
+    public VcdiffEngine(ByteSource source) {
+        this(source, EncodeLevel.DEFAULT);
+    }
+
+    public VcdiffEngine(ByteSource source, EncodeLevel level) {
+        this.source = source;
+        this.sourceSize = source.size();
         this.blockHash = null;
+        this.level = level;
+    }
+
+    /**
+     * engine using the hash already built for source
+     */
+    VcdiffEngine(ByteSource source, BlockHash blockHash, EncodeLevel level) {
+        this.source = source;
+        this.sourceSize = source.size();
+        this.blockHash = blockHash;
+        this.level = level;
     }
 
     public void init() throws VcdiffEncodeException {
-        this.blockHash = BlockHash.createDictionaryHash(this.sourcePointer, sourceSize);
+        this.blockHash = BlockHash.createDictionaryHash(this.source, level);
+    }
+
+    /**
+     * init with the source hash built in the pool
+     */
+    public void init(ForkJoinPool pool) throws VcdiffEncodeException {
+        this.blockHash = BlockHash.createDictionaryHash(this.source, level, pool);
     }
 
     /**
@@ -49,63 +80,66 @@ public class VcdiffEngine {
             return;
         }
 
+        int blockSize = level.getBlockSize();
         // Special case for really small input
-        if (targetSize < BlockHash.K_BLOCK_SIZE) {
-            addUnmatchedRemainder(new Pointer(targetData), targetSize, coder);
+        if (targetSize < blockSize) {
+            addUnmatchedRemainder(targetData, 0, targetSize, coder);
             finishEncoding(targetSize, diff, coder);
             return;
         }
 
-        RollingHash hasher = new RollingHash(BlockHash.K_BLOCK_SIZE);
+        ArrayByteSource target = new ArrayByteSource(targetData, targetSize);
+        RollingHash hasher = new RollingHash(blockSize);
         BlockHash targetHash = null;
         if (lookForTargetMatches) {
             // Check matches against previously encoded target data
-            // in this same target window, as well as against the sourcePointer
-            targetHash = BlockHash.createTargetHash(new Pointer(targetData), targetSize, sourceSize);
+            // in this same target window, as well as against the source
+            targetHash = BlockHash.createTargetHash(target, sourceSize, level);
         }
-        int startOfLastBlock = targetSize - BlockHash.K_BLOCK_SIZE;
+        // reused by every match finding, so the loop below allocates nothing
+        BlockHash.Match bestMatch = new BlockHash.Match();
+        BlockHash.Match lazyMatch = new BlockHash.Match();
+        int startOfLastBlock = targetSize - blockSize;
         // Offset of next bytes in string to ADD if NOT copied (i.e., not found in
-        // sourcePointer)
-        Pointer nextEncode = new Pointer(targetData);
+        // source)
+        int nextEncode = 0;
         // candidate_pos points to the start of the kBlockSize-byte block that may
-        // begin a match with the sourcePointer or previously encoded target data.
-        Pointer candidatePos = new Pointer(targetData);
-        int hashValue = hasher.hash(candidatePos);
+        // begin a match with the source or previously encoded target data.
+        int candidatePos = 0;
+        int hashValue = hasher.hash(target, candidatePos);
         while (true) {
-            int bytesEncoded = encodeCopyForBestMatch(hashValue, candidatePos, nextEncode,
-                    targetSize - nextEncode.offset(),
-                    targetHash, lookForTargetMatches,
-                    coder);
+            int bytesEncoded = encodeCopyForBestMatch(hashValue, target, candidatePos, nextEncode,
+                    targetSize - nextEncode, targetHash, hasher, bestMatch, lazyMatch, coder);
 
             if (bytesEncoded > 0) {
                 // match found
-                nextEncode = nextEncode.slice(bytesEncoded);  // Advance past COPYed data
-                candidatePos = nextEncode.copy();
-                if (candidatePos.offset() > startOfLastBlock) {
+                nextEncode += bytesEncoded;  // Advance past COPYed data
+                candidatePos = nextEncode;
+                if (candidatePos > startOfLastBlock) {
                     break;
                 }
                 // candidate_pos has jumped ahead by bytes_encoded bytes, so UpdateHash
                 // can't be used to calculate the hash value at its new position.
-                hashValue = hasher.hash(candidatePos);
+                hashValue = hasher.hash(target, candidatePos);
                 if (lookForTargetMatches) {
                     // Update the target hash for the ADDed and COPYed data
-                    targetHash.addAllBlocksThroughIndex(nextEncode.offset());
+                    targetHash.addAllBlocksThroughIndex(nextEncode);
                 }
             } else {
                 // No match, or match is too small to be worth a COPY instruction.
                 // advance one byte, and compare.
-                if ((candidatePos.offset() + 1) > startOfLastBlock) {
+                if ((candidatePos + 1) > startOfLastBlock) {
                     break;
                 }
                 if (lookForTargetMatches) {
-                    targetHash.addOneIndexHash(candidatePos.offset(), hashValue);
+                    targetHash.addOneIndexHash(candidatePos, hashValue);
                 }
-                hashValue = hasher.updateHash(hashValue, candidatePos.get(0),
-                        candidatePos.get(BlockHash.K_BLOCK_SIZE));
-                candidatePos.up();
+                hashValue = hasher.updateHash(hashValue, targetData[candidatePos],
+                        targetData[candidatePos + blockSize]);
+                candidatePos++;
             }
         }
-        addUnmatchedRemainder(nextEncode.copy(), targetSize - nextEncode.offset(), coder);
+        addUnmatchedRemainder(targetData, nextEncode, targetSize - nextEncode, coder);
         finishEncoding(targetSize, diff, coder);
     }
 
@@ -113,46 +147,118 @@ public class VcdiffEngine {
      * This helper function tries to find an appropriate match within hashed_dictionary for the block
      * starting at the current target position.
      * If target_hash is not NULL, this function will also look for a match within the previously encoded target data.
+     * With lazy matching, the blocks starting at the following lazyDepth positions are also tried,
+     * and the match saving the most bytes is encoded.
      *
      * @return the number of bytes processed by both instructions. 0 If no appropriate match is found
      */
-    private int encodeCopyForBestMatch(int hashValue, Pointer targetCandidate,
-                                       Pointer unencodedTarget, int unencodedTargetSize,
-                                       BlockHash targetLockHash,
-                                       boolean lookForTargetMatches, CodeTableWriter coder)
+    private int encodeCopyForBestMatch(int hashValue, ArrayByteSource target, int targetCandidate,
+                                       int unencodedStart, int unencodedTargetSize,
+                                       BlockHash targetHash, RollingHash hasher,
+                                       BlockHash.Match bestMatch, BlockHash.Match lazyMatch,
+                                       CodeTableWriter coder)
             throws IOException, VcdiffEncodeException {
-        BlockHash.Match bestMatch = new BlockHash.Match();
-
-        blockHash.findBestMatch(hashValue, targetCandidate, unencodedTarget,
-                unencodedTargetSize, bestMatch);
-        // If target matching is enabled, then see if there is a better match
-        // within the target data that has been encoded so far.
-        if (lookForTargetMatches) {
-            targetLockHash.findBestMatch(hashValue, targetCandidate, unencodedTarget,
-                    unencodedTargetSize, bestMatch);
-        }
-        if (bestMatch.getSize() < MINIMUM_MATCH_SIZE) {
+        findBestMatch(hashValue, target, targetCandidate, unencodedStart, unencodedTargetSize,
+                targetHash, bestMatch);
+        int minimumMatchSize = level.getMinimumMatchSize();
+        if (bestMatch.getSize() < minimumMatchSize) {
             // not found match
             return 0;
         }
+        int lazyDepth = level.getLazyDepth();
+        if (lazyDepth > 0) {
+            int blockSize = level.getBlockSize();
+            byte[] targetData = target.getData();
+            int bestSaving = matchSaving(bestMatch, coder);
+            int lastCandidate = Math.min(targetCandidate + lazyDepth, (int) target.size() - blockSize);
+            int lazyHash = hashValue;
+            for (int candidate = targetCandidate + 1; candidate <= lastCandidate; candidate++) {
+                lazyHash = hasher.updateHash(lazyHash, targetData[candidate - 1],
+                        targetData[candidate - 1 + blockSize]);
+                findBestMatch(lazyHash, target, candidate, unencodedStart, unencodedTargetSize,
+                        targetHash, lazyMatch);
+                if (lazyMatch.getSize() < minimumMatchSize) {
+                    continue;
+                }
+                int saving = matchSaving(lazyMatch, coder);
+                if (saving > bestSaving) {
+                    bestMatch.set(lazyMatch);
+                    bestSaving = saving;
+                }
+            }
+        }
         if (bestMatch.getTargetOffset() > 0) {
             // Create an ADD instruction to encode all target bytes from the end of the last COPY match,
             // up to the beginning of this COPY match.
-            coder.add(unencodedTarget, bestMatch.getTargetOffset());
+            addOrRun(target.getData(), unencodedStart, bestMatch.getTargetOffset(), coder);
         }
         coder.copy(bestMatch.getSourceOffset(), bestMatch.getSize());
         return bestMatch.getTargetOffset() + bestMatch.getSize();
     }
 
+    private void findBestMatch(int hashValue, ArrayByteSource target, int targetCandidate,
+                               int unencodedStart, int unencodedTargetSize,
+                               BlockHash targetHash, BlockHash.Match bestMatch)
+            throws VcdiffEncodeException {
+        bestMatch.reset();
+
+        blockHash.findBestMatch(hashValue, target, targetCandidate, unencodedStart,
+                unencodedTargetSize, bestMatch);
+        // If target matching is enabled, then see if there is a better match
+        // within the target data that has been encoded so far.
+        if (targetHash != null) {
+            targetHash.findBestMatch(hashValue, target, targetCandidate, unencodedStart,
+                    unencodedTargetSize, bestMatch);
+        }
+    }
+
+    /**
+     * The bytes a COPY of the match saves: the bytes it covers, less the bytes its address takes with
+     * the current state of address cache, and less the bytes ADDed before it, as a match starts later leaves
+     * more unencoded bytes to ADD.
+     */
+    private static int matchSaving(BlockHash.Match match, CodeTableWriter coder) {
+        return match.getSize() - coder.copyAddressCost(match.getSourceOffset(), match.getTargetOffset())
+                - match.getTargetOffset();
+    }
+
     /**
      * creates an ADD instruction to encode all target bytes from the end of the last COPY match,
      * if any, through the end of the target data.
      */
-    private void addUnmatchedRemainder(Pointer unencodedTargetStart, int unencodedTargetSize,
+    private void addUnmatchedRemainder(byte[] targetData, int unencodedStart, int unencodedTargetSize,
                                        CodeTableWriter coder)
             throws IOException, VcdiffEncodeException {
         if (unencodedTargetSize > 0) {
-            coder.add(unencodedTargetStart, unencodedTargetSize);
+            addOrRun(targetData, unencodedStart, unencodedTargetSize, coder);
+        }
+    }
+
+    /**
+     * Encode unmatched data as ADD instructions, except runs of the same byte which are encoded as RUN.
+     */
+    private void addOrRun(byte[] data, int offset, int size, CodeTableWriter coder)
+            throws IOException, VcdiffEncodeException {
+        int end = offset + size;
+        int addStart = offset;
+        int runStart = offset;
+        while (runStart < end) {
+            byte b = data[runStart];
+            int runEnd = runStart + 1;
+            while (runEnd < end && data[runEnd] == b) {
+                runEnd++;
+            }
+            if (runEnd - runStart >= MINIMUM_RUN_SIZE) {
+                if (runStart > addStart) {
+                    coder.add(data, addStart, runStart - addStart);
+                }
+                coder.run(runEnd - runStart, b);
+                addStart = runEnd;
+            }
+            runStart = runEnd;
+        }
+        if (end > addStart) {
+            coder.add(data, addStart, end - addStart);
         }
     }
 
@@ -165,7 +271,11 @@ public class VcdiffEngine {
         coder.output(diff);
     }
 
-    public int getSourceSize() {
+    public long getSourceSize() {
         return sourceSize;
     }
+
+    public EncodeLevel getLevel() {
+        return level;
+    }
 }
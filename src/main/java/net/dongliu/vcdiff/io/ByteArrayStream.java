@@ -40,12 +40,12 @@ public class ByteArrayStream implements RandomAccessStream {
     }
 
     @Override
-    public void seek(int pos) throws IOException {
-        if (pos < 0) {
-            throw new IOException("Not a seekable pos, less than zero.");
+    public void seek(long pos) throws IOException {
+        if (pos < 0 || pos > Integer.MAX_VALUE) {
+            throw new IOException("Not a seekable pos, larger than max array size or less than zero.");
         }
-        ensureCapacity(pos);
-        this.buffer.position(pos);
+        ensureCapacity((int) pos);
+        this.buffer.position((int) pos);
     }
 
     @Override
@@ -55,7 +55,7 @@ public class ByteArrayStream implements RandomAccessStream {
     }
 
     @Override
-    public int pos() throws IOException {
+    public long pos() throws IOException {
         return this.buffer.position();
     }
 
@@ -104,7 +104,7 @@ public class ByteArrayStream implements RandomAccessStream {
     }
 
     @Override
-    public int length() throws IOException {
+    public long length() throws IOException {
         return this.size;
     }
 
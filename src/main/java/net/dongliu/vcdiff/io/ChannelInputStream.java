@@ -0,0 +1,136 @@
+package net.dongliu.vcdiff.io;
+
+import net.dongliu.vcdiff.utils.ByteBufferUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+
+/**
+ * Input stream reads from a channel through a reused direct buffer, so reading headers byte by byte
+ * not cost a syscall per byte. Large reads when buffer is empty go to the channel directly.
+ * The channel must be in blocking mode, a read of the channel returns no data is taken as an error.
+ * The stream reads ahead of the data consumed, so the channel position is not where the stream stops.
+ *
+ * @author dongliu
+ */
+public class ChannelInputStream extends InputStream {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+
+    /**
+     * null if the stream is closed
+     */
+    private ByteBuffer buffer;
+
+    public ChannelInputStream(ReadableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the channel is a selectable channel in non-blocking mode
+     */
+    public ChannelInputStream(ReadableByteChannel channel, int bufferSize) {
+        if (channel == null) {
+            throw new NullPointerException();
+        }
+        if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking()) {
+            throw new IllegalArgumentException("Non-blocking channel not supported");
+        }
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.buffer.flip();
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        if (!buffer.hasRemaining() && !fill()) {
+            return -1;
+        }
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            if (len >= buffer.capacity()) {
+                return checkRead(channel.read(ByteBuffer.wrap(b, off, len)));
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+        int size = Math.min(len, buffer.remaining());
+        buffer.get(b, off, size);
+        return size;
+    }
+
+    /**
+     * read data from channel to buffer, return false if reach the end of channel
+     */
+    private boolean fill() throws IOException {
+        buffer.clear();
+        int size = channel.read(buffer);
+        buffer.flip();
+        return checkRead(size) > 0;
+    }
+
+    /**
+     * a blocking channel reads at least one byte before the end of channel
+     */
+    private static int checkRead(int size) throws IOException {
+        if (size == 0) {
+            throw new IOException("No data read from channel, the channel should be in blocking mode");
+        }
+        return size;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return buffer.remaining();
+    }
+
+    /**
+     * close the channel, and release the buffer. Close a closed stream does nothing.
+     */
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * release the buffer without closing the channel, the stream is closed.
+     * Data read ahead into the buffer is dropped.
+     */
+    public void release() {
+        if (buffer == null) {
+            return;
+        }
+        ByteBuffer releasedBuffer = buffer;
+        buffer = null;
+        ByteBufferUtils.free(releasedBuffer);
+    }
+}
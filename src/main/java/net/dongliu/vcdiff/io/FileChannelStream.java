@@ -0,0 +1,276 @@
+package net.dongliu.vcdiff.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Random access stream over a file channel, using positional read and write.
+ * The position of stream is the position in file, starts at 0, and is independent of the position of channel.
+ * <p>
+ * Reads and writes go through a buffer, so single byte reads and writes not cost a syscall each.
+ * Pending writes are flushed on seek, before reads, and on close; call {@link #flush()} to write them out
+ * if the stream is not closed. Reads and writes not smaller than the buffer go to the channel directly.
+ * </p>
+ * <p>
+ * Slices are read only views of a range of the file, which read the channel by positional reads as the stream does,
+ * so the range is not loaded into heap. Close a slice does not close the channel.
+ * </p>
+ *
+ * @author dongliu
+ */
+public class FileChannelStream implements RandomAccessStream {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final boolean readOnly;
+    private long position;
+    /**
+     * the file position of stream position 0, not 0 only for slices
+     */
+    private final long offset;
+    /**
+     * the length of slice, -1 if this stream is not a slice
+     */
+    private final long sliceLength;
+
+    private final byte[] buffer;
+    private final ByteBuffer byteBuffer;
+    /**
+     * the stream position of buffer[0]
+     */
+    private long bufferStart;
+    /**
+     * the number of bytes in buffer read from file, 0 if buffer holds no data for reading
+     */
+    private int readLimit;
+    /**
+     * the number of bytes in buffer not written to file yet, 0 if no pending writes
+     */
+    private int writeLength;
+
+    public FileChannelStream(FileChannel channel) {
+        this(channel, false);
+    }
+
+    public FileChannelStream(FileChannel channel, boolean readOnly) {
+        this(channel, readOnly, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize the size of read / write buffer
+     */
+    public FileChannelStream(FileChannel channel, boolean readOnly, int bufferSize) {
+        this(channel, readOnly, bufferSize, 0, -1);
+    }
+
+    private FileChannelStream(FileChannel channel, boolean readOnly, int bufferSize, long offset, long sliceLength) {
+        if (channel == null) {
+            throw new NullPointerException();
+        }
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid buffer size:" + bufferSize);
+        }
+        this.channel = channel;
+        this.readOnly = readOnly;
+        this.position = 0;
+        this.offset = offset;
+        this.sliceLength = sliceLength;
+        this.buffer = new byte[bufferSize];
+        this.byteBuffer = ByteBuffer.wrap(buffer);
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        if (pos < 0) {
+            throw new IOException("Negative position:" + pos);
+        }
+        flush();
+        this.position = pos;
+    }
+
+    @Override
+    public long pos() throws IOException {
+        return position;
+    }
+
+    @Override
+    public int read(byte[] data, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (sliceLength >= 0) {
+            if (position >= sliceLength) {
+                return -1;
+            }
+            length = (int) Math.min(length, sliceLength - position);
+        }
+        flush();
+        int available = bufferedForRead();
+        if (available <= 0) {
+            if (length >= buffer.length) {
+                int size = channel.read(ByteBuffer.wrap(data, offset, length), this.offset + position);
+                if (size > 0) {
+                    position += size;
+                }
+                return size;
+            }
+            available = fill();
+            if (available <= 0) {
+                return -1;
+            }
+        }
+        int size = Math.min(length, available);
+        System.arraycopy(buffer, (int) (position - bufferStart), data, offset, size);
+        position += size;
+        return size;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (sliceLength >= 0 && position >= sliceLength) {
+            return -1;
+        }
+        flush();
+        if (bufferedForRead() <= 0 && fill() <= 0) {
+            return -1;
+        }
+        return buffer[(int) (position++ - bufferStart)] & 0xff;
+    }
+
+    /**
+     * the number of bytes can be read from buffer at current position
+     */
+    private int bufferedForRead() {
+        if (readLimit == 0 || position < bufferStart || position >= bufferStart + readLimit) {
+            return 0;
+        }
+        return (int) (bufferStart + readLimit - position);
+    }
+
+    /**
+     * read data at current position into buffer
+     *
+     * @return the number of bytes read, -1 if reach the end of file
+     */
+    private int fill() throws IOException {
+        bufferStart = position;
+        readLimit = 0;
+        byteBuffer.clear();
+        if (sliceLength >= 0) {
+            byteBuffer.limit((int) Math.min(buffer.length, sliceLength - position));
+        }
+        int size = channel.read(byteBuffer, offset + position);
+        if (size > 0) {
+            readLimit = size;
+        }
+        return size;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (readOnly) {
+            throw new UnsupportedOperationException();
+        }
+        // data in read buffer may be overwritten
+        readLimit = 0;
+        if (writeLength > 0 && (position != bufferStart + writeLength || writeLength + length > buffer.length)) {
+            flush();
+        }
+        if (length >= buffer.length) {
+            ByteBuffer src = ByteBuffer.wrap(data, offset, length);
+            while (src.hasRemaining()) {
+                position += channel.write(src, this.offset + position);
+            }
+            return;
+        }
+        if (writeLength == 0) {
+            bufferStart = position;
+        }
+        System.arraycopy(data, offset, buffer, writeLength, length);
+        writeLength += length;
+        position += length;
+    }
+
+    @Override
+    public void write(byte[] data) throws IOException {
+        write(data, 0, data.length);
+    }
+
+    @Override
+    public void write(byte b) throws IOException {
+        if (readOnly) {
+            throw new UnsupportedOperationException();
+        }
+        readLimit = 0;
+        if (writeLength > 0 && (position != bufferStart + writeLength || writeLength == buffer.length)) {
+            flush();
+        }
+        if (writeLength == 0) {
+            bufferStart = position;
+        }
+        buffer[writeLength++] = b;
+        position++;
+    }
+
+    /**
+     * write pending data in buffer to file
+     */
+    public void flush() throws IOException {
+        if (writeLength == 0) {
+            return;
+        }
+        ByteBuffer src = ByteBuffer.wrap(buffer, 0, writeLength);
+        long pos = offset + bufferStart;
+        while (src.hasRemaining()) {
+            pos += channel.write(src, pos);
+        }
+        writeLength = 0;
+    }
+
+    @Override
+    public long length() throws IOException {
+        if (sliceLength >= 0) {
+            return sliceLength;
+        }
+        flush();
+        return channel.size();
+    }
+
+    /**
+     * a read only view of the range, reads the channel as it is used
+     */
+    @Override
+    public RandomAccessStream slice(int length) throws IOException {
+        flush();
+        long available = sliceLength >= 0 ? sliceLength - position : channel.size() - position;
+        if (length > available) {
+            throw new IndexOutOfBoundsException("Not enough data in channel, require:" + length);
+        }
+        RandomAccessStream slice = new FileChannelStream(channel, true,
+                Math.min(buffer.length, Math.max(length, 1)), offset + position, length);
+        position += length;
+        return slice;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * flush pending writes, and close the channel. Close a slice does nothing.
+     */
+    @Override
+    public void close() throws IOException {
+        if (sliceLength >= 0) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -1,21 +1,47 @@
 package net.dongliu.vcdiff.io;
 
+import net.dongliu.vcdiff.utils.ByteBufferUtils;
+import net.dongliu.vcdiff.utils.IOUtils;
+
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Wraps a random access file.
+ * Slices are views of file regions mapped into memory. Regions are mapped once and reused by later slices,
+ * and are unmapped when the stream is closed, so slices must not be used after the stream closed.
  *
  * @author dongliu
  */
 public class FileStream implements RandomAccessStream {
 
+    /**
+     * Regions start at multiples of 512 MB and are 1 GB long, overlap by half, so any slice
+     * not larger than 512 MB is in one region. Larger slices are read into heap.
+     */
+    private static final int DEFAULT_REGION_SHIFT = 29;
+
     private final boolean readOnly;
     private final RandomAccessFile raf;
 
+    private final int regionShift;
+    /**
+     * mapped regions by region index
+     */
+    private final Map<Long, MappedByteBuffer> regions = new HashMap<>();
+    /**
+     * all buffers ever mapped, include the ones replaced after file grows, to unmap when close
+     */
+    private final List<MappedByteBuffer> mappedBuffers = new ArrayList<>();
+
     /**
      * Constructs a new RandomAccessFileSeekableSource.
      *
@@ -28,19 +54,24 @@ public class FileStream implements RandomAccessStream {
 
     public FileStream(RandomAccessFile file, boolean readOnly)
             throws FileNotFoundException {
+        this(file, readOnly, DEFAULT_REGION_SHIFT);
+    }
+
+    FileStream(RandomAccessFile file, boolean readOnly, int regionShift) throws FileNotFoundException {
         if (file == null) {
             throw new NullPointerException();
         }
         this.raf = file;
         this.readOnly = readOnly;
+        this.regionShift = regionShift;
     }
 
-    public void seek(int pos) throws IOException {
+    public void seek(long pos) throws IOException {
         raf.seek(pos);
     }
 
-    public int pos() throws IOException {
-        return (int) raf.getFilePointer();
+    public long pos() throws IOException {
+        return raf.getFilePointer();
     }
 
     @Override
@@ -49,13 +80,24 @@ public class FileStream implements RandomAccessStream {
     }
 
     @Override
-    public int length() throws IOException {
-        return (int) raf.length();
+    public long length() throws IOException {
+        return raf.length();
     }
 
+    /**
+     * close the file, and unmap all regions mapped by slice
+     */
     @Override
     public void close() throws IOException {
-        raf.close();
+        try {
+            raf.close();
+        } finally {
+            for (MappedByteBuffer buffer : mappedBuffers) {
+                ByteBufferUtils.free(buffer);
+            }
+            mappedBuffers.clear();
+            regions.clear();
+        }
     }
 
     @Override
@@ -89,15 +131,36 @@ public class FileStream implements RandomAccessStream {
         return this.raf.read();
     }
 
+    /**
+     * Return a read only view of the mapped region contains the slice, the region is mapped if not yet.
+     */
     @Override
     public RandomAccessStream slice(int length) throws IOException {
-        // use byteBuffer to slice.
-        // this strategy is SPECIALLY for jVcdiff use.
-        FileChannel fc = this.raf.getChannel();
-        MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY,
-                this.raf.getFilePointer(), length);
-        this.raf.seek(this.raf.getFilePointer() + length);
-        return new FixedByteArrayStream(buffer);
+        long pos = this.raf.getFilePointer();
+        long end = pos + length;
+        long fileLength = this.raf.length();
+        if (end > fileLength) {
+            throw new IndexOutOfBoundsException("Not enough data in file, require:" + (end - fileLength));
+        }
+        long regionStep = 1L << regionShift;
+        if (length > regionStep) {
+            return new FixedByteArrayStream(IOUtils.readBytes(this, length), true);
+        }
+        long regionIndex = pos >>> regionShift;
+        long regionStart = regionIndex << regionShift;
+        MappedByteBuffer region = regions.get(regionIndex);
+        if (region == null || region.capacity() < end - regionStart) {
+            // not mapped yet, or the file grows after the region mapped
+            long regionSize = Math.min(regionStep * 2, fileLength - regionStart);
+            region = this.raf.getChannel().map(FileChannel.MapMode.READ_ONLY, regionStart, regionSize);
+            regions.put(regionIndex, region);
+            mappedBuffers.add(region);
+        }
+        ByteBuffer view = region.duplicate();
+        view.limit((int) (end - regionStart));
+        view.position((int) (pos - regionStart));
+        this.raf.seek(end);
+        return new FixedByteArrayStream(view.slice());
     }
 
 
@@ -41,11 +41,11 @@ public class FixedByteArrayStream implements RandomAccessStream {
     }
 
     @Override
-    public void seek(int pos) throws IOException {
+    public void seek(long pos) throws IOException {
         if (pos < 0 || pos > this.buffer.limit()) {
             throw new IOException("Not a seekable pos, larger than length or less than zero.");
         }
-        this.buffer.position(pos);
+        this.buffer.position((int) pos);
     }
 
     @Override
@@ -55,7 +55,7 @@ public class FixedByteArrayStream implements RandomAccessStream {
     }
 
     @Override
-    public int pos() throws IOException {
+    public long pos() throws IOException {
         return this.buffer.position();
     }
 
@@ -99,7 +99,7 @@ public class FixedByteArrayStream implements RandomAccessStream {
     }
 
     @Override
-    public int length() throws IOException {
+    public long length() throws IOException {
         return this.buffer.limit();
     }
 
@@ -0,0 +1,117 @@
+package net.dongliu.vcdiff.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The next length bytes of an input stream, as a read only stream which can only be read in order.
+ * The data is read from the input stream as it is needed, not loaded ahead.
+ * Close does not close the input stream.
+ *
+ * @author dongliu
+ */
+public class InputSectionStream implements RandomAccessStream {
+
+    private final InputStream input;
+
+    private final int length;
+
+    private int position;
+
+    public InputSectionStream(InputStream input, int length) {
+        if (input == null) {
+            throw new NullPointerException();
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative length:" + length);
+        }
+        this.input = input;
+        this.length = length;
+    }
+
+    /**
+     * only the current position is allowed, as the stream can not go back or skip
+     */
+    @Override
+    public void seek(long pos) throws IOException {
+        if (pos != position) {
+            throw new IOException("Not a seekable pos, the stream can only be read in order:" + pos);
+        }
+    }
+
+    @Override
+    public long pos() throws IOException {
+        return position;
+    }
+
+    @Override
+    public int read(byte[] data, int offset, int length) throws IOException {
+        if (position >= this.length) {
+            return -1;
+        }
+        int size = input.read(data, offset, Math.min(length, this.length - position));
+        if (size < 0) {
+            throw new IndexOutOfBoundsException("Not enough data in inputStream.");
+        }
+        position += size;
+        return size;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= length) {
+            return -1;
+        }
+        int b = input.read();
+        if (b < 0) {
+            throw new IndexOutOfBoundsException("Not enough data in inputStream.");
+        }
+        position++;
+        return b;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void write(byte[] data) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void write(byte b) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long length() throws IOException {
+        return length;
+    }
+
+    /**
+     * read the range into heap
+     */
+    @Override
+    public RandomAccessStream slice(int length) throws IOException {
+        if (length > this.length - position) {
+            throw new IndexOutOfBoundsException("Not enough data in section, require:" + length);
+        }
+        byte[] data = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            offset += read(data, offset, length - offset);
+        }
+        return new FixedByteArrayStream(data, true);
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+}
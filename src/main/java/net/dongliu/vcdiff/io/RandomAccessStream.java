@@ -13,7 +13,7 @@ public interface RandomAccessStream extends Closeable {
     /**
      * Sets the position for the next read.
      */
-    void seek(int pos) throws IOException;
+    void seek(long pos) throws IOException;
 
     /**
      * get current pos.
@@ -21,7 +21,7 @@ public interface RandomAccessStream extends Closeable {
      * @return
      * @throws IOException
      */
-    int pos() throws IOException;
+    long pos() throws IOException;
 
     int read(byte[] data, int offset, int length) throws IOException;
 
@@ -36,7 +36,7 @@ public interface RandomAccessStream extends Closeable {
      *
      * @throws IOException
      */
-    int length() throws IOException;
+    long length() throws IOException;
 
     /**
      * get a readonly stream, share data with origin stream.
@@ -1,5 +1,6 @@
 package net.dongliu.vcdiff.utils;
 
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 
@@ -9,16 +10,49 @@ import java.nio.ByteBuffer;
 public class ByteBufferUtils {
 
     /**
-     * Try deallocate direct byte buffer, do nothing if buffer is not direct
+     * sun.misc.Unsafe instance and its invokeCleaner method, only available for java 9+
+     */
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+        } catch (Exception e) {
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    /**
+     * Try deallocate direct byte buffer (or unmap mapped byte buffer), do nothing if buffer is not direct.
+     * Buffers created by slice / duplicate do not own the memory, and are not freed.
      */
     public static boolean free(ByteBuffer byteBuffer) {
         if (byteBuffer == null || !byteBuffer.isDirect()) {
             return false;
         }
 
+        if (INVOKE_CLEANER != null) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, byteBuffer);
+                return true;
+            } catch (Exception e) {
+                // slice or duplicate
+                return false;
+            }
+        }
+
         //call ((DirectBuffer)byteBuffer).cleaner().clean() by reflection
         try {
-            Method getCleanerMethod = byteBuffer.getClass().getDeclaredMethod("cleaner");
+            Method getCleanerMethod = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
             getCleanerMethod.setAccessible(true);
             Object cleaner = getCleanerMethod.invoke(byteBuffer);
             if (cleaner != null) {
@@ -22,17 +22,30 @@ public class IOUtils {
      * @throws IOException
      */
     public static byte[] readBytes(InputStream is, int size) throws IOException {
-        byte[] data = new byte[size];
+        return readBytes(is, new byte[size], size);
+    }
+
+    /**
+     * read N bytes from input stream into the head of buffer.
+     * throw exception when not enough data in is.
+     *
+     * @param is
+     * @param buffer the buffer to hold data, should have at least size bytes
+     * @param size
+     * @return the buffer
+     * @throws IOException
+     */
+    public static byte[] readBytes(InputStream is, byte[] buffer, int size) throws IOException {
         int offset = 0;
         while (offset < size) {
-            int readSize = is.read(data, offset, size - offset);
+            int readSize = is.read(buffer, offset, size - offset);
             if (readSize < 0) {
                 // end of is
                 throw new IndexOutOfBoundsException("Not enough data in inputStream.");
             }
             offset += readSize;
         }
-        return data;
+        return buffer;
     }
 
     /**
@@ -44,17 +57,26 @@ public class IOUtils {
     public static byte[] readBytes(RandomAccessStream randomAccessStream, int size)
             throws IOException {
         byte[] data = new byte[size];
-        int offset = 0;
-        while (offset < size) {
-            int readSize = randomAccessStream.read(data, offset, size - offset);
+        readBytes(randomAccessStream, data, 0, size);
+        return data;
+    }
+
+    /**
+     * read N bytes from stream into buffer at offset.
+     * throw exception when not enough data in stream.
+     */
+    public static void readBytes(RandomAccessStream randomAccessStream, byte[] buffer, int offset, int size)
+            throws IOException {
+        int end = offset + size;
+        while (offset < end) {
+            int readSize = randomAccessStream.read(buffer, offset, end - offset);
             if (readSize < 0) {
                 // end of is
                 throw new IndexOutOfBoundsException(
-                        "Not enough data in inputStream, require:" + (size - offset));
+                        "Not enough data in inputStream, require:" + (end - offset));
             }
             offset += readSize;
         }
-        return data;
     }
 
     /**
@@ -76,22 +98,6 @@ public class IOUtils {
         }
     }
 
-
-    /**
-     * copy bytes
-     *
-     * @param sourceStream
-     * @param targetDataStream
-     * @param size
-     * @throws IOException
-     */
-    public static void copy(RandomAccessStream sourceStream, RandomAccessStream targetDataStream,
-                            int size)
-            throws IOException {
-        byte[] bytes = readBytes(sourceStream, size);
-        targetDataStream.write(bytes, 0, bytes.length);
-    }
-
     /**
      * close quietly.
      *
@@ -135,6 +141,9 @@ public class IOUtils {
             if (b == -1) {
                 throw new IndexOutOfBoundsException("Not enough data in inputStream.");
             }
+            if (ret > (Integer.MAX_VALUE >> 7)) {
+                throw new IOException("7-bit encoded integer overflow.");
+            }
             ret = (ret << 7) | (b & 0x7f);
             // end of int encoded.
             if ((b & 0x80) == 0) {
@@ -158,6 +167,9 @@ public class IOUtils {
             if (b == -1) {
                 throw new IndexOutOfBoundsException("Not enough data in inputStream.");
             }
+            if (ret > (Integer.MAX_VALUE >> 7)) {
+                throw new IOException("7-bit encoded integer overflow.");
+            }
             ret = (ret << 7) | (b & 0x7f);
             // end of int encoded.
             if ((b & 0x80) == 0) {
@@ -168,6 +180,58 @@ public class IOUtils {
         throw new IOException("Invalid 7-bit encoded integer in stream.");
     }
 
+    /**
+     * read 7 bit encoded long.by big endian.
+     *
+     * @return
+     * @throws IOException
+     */
+    public static long readVarLongBE(InputStream is) throws IOException {
+        long ret = 0;
+        for (int i = 0; i < 9; i++) {
+            int b = is.read();
+            if (b == -1) {
+                throw new IndexOutOfBoundsException("Not enough data in inputStream.");
+            }
+            if (ret > (Long.MAX_VALUE >> 7)) {
+                throw new IOException("7-bit encoded long overflow.");
+            }
+            ret = (ret << 7) | (b & 0x7f);
+            // end of long encoded.
+            if ((b & 0x80) == 0) {
+                return ret;
+            }
+        }
+        // Still haven't seen a byte with the high bit unset? Dodgy data.
+        throw new IOException("Invalid 7-bit encoded long in stream.");
+    }
+
+    /**
+     * read 7 bit encoded long.by big endian.
+     *
+     * @return
+     * @throws IOException
+     */
+    public static long readVarLongBE(RandomAccessStream randomAccessStream) throws IOException {
+        long ret = 0;
+        for (int i = 0; i < 9; i++) {
+            int b = randomAccessStream.read();
+            if (b == -1) {
+                throw new IndexOutOfBoundsException("Not enough data in inputStream.");
+            }
+            if (ret > (Long.MAX_VALUE >> 7)) {
+                throw new IOException("7-bit encoded long overflow.");
+            }
+            ret = (ret << 7) | (b & 0x7f);
+            // end of long encoded.
+            if ((b & 0x80) == 0) {
+                return ret;
+            }
+        }
+        // Still haven't seen a byte with the high bit unset? Dodgy data.
+        throw new IOException("Invalid 7-bit encoded long in stream.");
+    }
+
     public static int varIntLen(int i) {
         boolean flag = false;
         int shift = 4 * 7;
@@ -209,16 +273,28 @@ public class IOUtils {
         }
     }
 
-    // for checksum encode
-    public static int varLongLength(long checksum_) {
-        //TODO: to be implemented
-        throw new UnsupportedOperationException();
+    /**
+     * the encoded len of a non-negative long
+     */
+    public static int varLongLen(long l) {
+        int len = 1;
+        while ((l >>>= 7) != 0) {
+            len++;
+        }
+        return len;
     }
 
-    // for checksum encode
-    public static void writeVarLongBE(OutputStream out, long checksum_) {
-        //TODO: to be implemented
-        throw new UnsupportedOperationException();
+    /**
+     * write non-negative long as var-len long
+     */
+    public static void writeVarLongBE(long l, OutputStream out) throws IOException {
+        if (l < 0) {
+            throw new IllegalArgumentException("negative value can not be encoded:" + l);
+        }
+        for (int shift = (varLongLen(l) - 1) * 7; shift > 0; shift -= 7) {
+            out.write((int) ((l >>> shift) & 0x7f) | 0x80);
+        }
+        out.write((int) (l & 0x7f));
     }
 
     public static byte[] readAll(InputStream in) throws IOException {
@@ -1,5 +1,8 @@
 package net.dongliu.vcdiff.utils;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.Arrays;
 
 /**
@@ -8,6 +11,22 @@ import java.util.Arrays;
  */
 public class Misc {
 
+    /**
+     * Arrays.mismatch(byte[], int, int, byte[], int, int), which is vectorized by jvm, only available for java 9+
+     */
+    private static final MethodHandle MISMATCH;
+
+    static {
+        MethodHandle mismatch;
+        try {
+            mismatch = MethodHandles.lookup().findStatic(Arrays.class, "mismatch", MethodType.methodType(int.class,
+                    byte[].class, int.class, int.class, byte[].class, int.class, int.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            mismatch = null;
+        }
+        MISMATCH = mismatch;
+    }
+
     /**
      * convert byte as unsigned value to short
      *
@@ -26,4 +45,34 @@ public class Misc {
         }
         return true;
     }
+
+    /**
+     * If mismatch is vectorized, that is, running on java 9+
+     */
+    public static boolean hasFastMismatch() {
+        return MISMATCH != null;
+    }
+
+    /**
+     * Find the index of the first mismatched byte of two array ranges with the same length
+     *
+     * @return the relative index of the first mismatch, or -1 if the ranges are equal
+     */
+    public static int mismatch(byte[] a, int aFrom, byte[] b, int bFrom, int length) {
+        if (MISMATCH != null) {
+            try {
+                return (int) MISMATCH.invokeExact(a, aFrom, aFrom + length, b, bFrom, bFrom + length);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            if (a[aFrom + i] != b[bFrom + i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
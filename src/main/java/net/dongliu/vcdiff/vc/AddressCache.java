@@ -6,6 +6,7 @@ import net.dongliu.vcdiff.io.RandomAccessStream;
 import net.dongliu.vcdiff.utils.IOUtils;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -28,7 +29,7 @@ public class AddressCache {
      * address used for encoding addresses nearby to previously encoded
      * addresses
      */
-    private int[] near;
+    private long[] near;
 
     private int nextNearSlot;
 
@@ -36,7 +37,7 @@ public class AddressCache {
      * The same cache maintains a hash table of recent addresses used for
      * repeated encoding of the exact same address
      */
-    private int[] same;
+    private long[] same;
 
     private RandomAccessStream addressStream;
 
@@ -47,16 +48,31 @@ public class AddressCache {
     public AddressCache(int nearSize, int sameSize) {
         this.nearSize = nearSize;
         this.sameSize = sameSize;
-        near = new int[nearSize];
-        same = new int[sameSize * 256];
+        near = new long[nearSize];
+        same = new long[sameSize * 256];
     }
 
     public void reset(byte[] addresses) {
+        reset(addresses, addresses.length);
+    }
+
+    /**
+     * reset cache, and use the first length bytes of addresses as address section.
+     */
+    public void reset(byte[] addresses, int length) {
+        reset(new FixedByteArrayStream(ByteBuffer.wrap(addresses, 0, length).asReadOnlyBuffer()));
+    }
+
+    /**
+     * reset cache, and read addresses from the stream. For the interleaved format,
+     * the stream is the instructions section which addresses are mixed in.
+     */
+    public void reset(RandomAccessStream addressStream) {
         nextNearSlot = 0;
         Arrays.fill(near, 0);
         Arrays.fill(same, 0);
 
-        addressStream = new FixedByteArrayStream(addresses, true);
+        this.addressStream = addressStream;
     }
 
     /**
@@ -65,19 +81,19 @@ public class AddressCache {
      * @return
      * @throws IOException
      */
-    public int decodeAddress(int here, short mode) throws IOException {
-        int address;
+    public long decodeAddress(long here, short mode) throws IOException {
+        long address;
 
         if (mode == Vcdiff.VCD_SELF_MODE) {
             // The address was encoded by itself as an integer
-            address = IOUtils.readVarIntBE(addressStream);
+            address = IOUtils.readVarLongBE(addressStream);
         } else if (mode == Vcdiff.VCD_HERE_MODE) {
             // The address was encoded as the integer value "here - addr"
-            address = here - IOUtils.readVarIntBE(addressStream);
+            address = here - IOUtils.readVarLongBE(addressStream);
         } else if (mode <= nearSize + 1) {
             // Near modes: The "near modes" are in the range [2,nearSize+1]
             // The address was encoded  as the integer value "addr - near[m-2]"
-            address = near[mode - 2] + IOUtils.readVarIntBE(addressStream);
+            address = near[mode - 2] + IOUtils.readVarLongBE(addressStream);
         } else if (mode <= nearSize + sameSize + 1) {
             // Same modes: are in the range [nearSize+2,nearSize+sameSize+1].
             // The address was encoded as a single byte b such that "addr == same[(mode - (s_near+2))*256 + b]".
@@ -97,13 +113,13 @@ public class AddressCache {
      *
      * @param address
      */
-    private void update(int address) {
+    private void update(long address) {
         if (nearSize > 0) {
             near[nextNearSlot] = address;
             nextNearSlot = (nextNearSlot + 1) % nearSize;
         }
         if (sameSize > 0) {
-            same[address % (sameSize * 256)] = address;
+            same[(int) (address % (sameSize * 256))] = address;
         }
     }
 
@@ -119,13 +135,13 @@ public class AddressCache {
      * @param encodedAddress the encode address. because java cannot pass reference, we use a wrapper
      * @return the mode
      */
-    public short encodeAddress(int address, int hereAddress, int[] encodedAddress) {
+    public short encodeAddress(long address, long hereAddress, long[] encodedAddress) {
         assert address >= 0;
         assert address < hereAddress;
         // Try using the SAME cache.  This method, if available, always
         // results in the smallest encoding and takes priority over other modes.
         if (sameSize > 0) {
-            int sameCachePos = address % (sameSize * 256);
+            int sameCachePos = (int) (address % (sameSize * 256));
             if (same[sameCachePos] == address) {
                 // This is the only mode for which an single byte will be written
                 // to the address stream instead of a variable-length integer.
@@ -137,10 +153,10 @@ public class AddressCache {
 
         // Try SELF mode
         short bestMode = Vcdiff.VCD_SELF_MODE;
-        int bestEncodedAddress = address;
+        long bestEncodedAddress = address;
 
         // Try HERE mode
-        int hereEncodedAddress = hereAddress - address;
+        long hereEncodedAddress = hereAddress - address;
         if (hereEncodedAddress < bestEncodedAddress) {
             bestMode = Vcdiff.VCD_HERE_MODE;
             bestEncodedAddress = hereEncodedAddress;
@@ -148,7 +164,7 @@ public class AddressCache {
 
         // Try using the NEAR cache
         for (int i = 0; i < nearSize; ++i) {
-            int nearEncodedAddress = address - near[i];
+            long nearEncodedAddress = address - near[i];
             if ((nearEncodedAddress >= 0) &&
                     (nearEncodedAddress < bestEncodedAddress)) {
                 bestMode = (short) (firstNearMode() + i);
@@ -161,6 +177,26 @@ public class AddressCache {
         return bestMode;
     }
 
+    /**
+     * the bytes the address would take in address section if encoded now, the cache is not updated.
+     *
+     * @param address     the address to copy from
+     * @param hereAddress the current location in the target data
+     */
+    public int addressCost(long address, long hereAddress) {
+        if (sameSize > 0 && same[(int) (address % (sameSize * 256))] == address) {
+            return 1;
+        }
+        long bestEncodedAddress = Math.min(address, hereAddress - address);
+        for (int i = 0; i < nearSize; ++i) {
+            long nearEncodedAddress = address - near[i];
+            if ((nearEncodedAddress >= 0) && (nearEncodedAddress < bestEncodedAddress)) {
+                bestEncodedAddress = nearEncodedAddress;
+            }
+        }
+        return IOUtils.varLongLen(bestEncodedAddress);
+    }
+
     private short firstNearMode() {
         return Vcdiff.VCD_FIRST_NEAR_MODE;
     }
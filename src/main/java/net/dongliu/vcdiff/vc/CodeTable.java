@@ -20,16 +20,37 @@ public class CodeTable {
      */
     Instruction[][] entries;
 
+    /**
+     * entries packed into ints for decoding, entry (opcode, idx) at opcode * 2 + idx.
+     * type in bits 0-7, mode in bits 8-15, size in bits 16-23.
+     */
+    private final int[] packedEntries;
+
     public CodeTable(byte[] bytes) {
         entries = initCodeTableEntries();
         for (int i = 0; i < CodeTableSize; i++) {
             entries[i][0] = new Instruction(bytes[i], Misc.unsignedToShort(bytes[i + 512]), Misc.unsignedToShort(bytes[i + 1024]));
             entries[i][1] = new Instruction(bytes[i + 256], Misc.unsignedToShort(bytes[i + 768]), Misc.unsignedToShort(bytes[i + 1280]));
         }
+        this.packedEntries = pack(entries);
     }
 
     private CodeTable(Instruction[][] entries) {
         this.entries = entries;
+        this.packedEntries = pack(entries);
+    }
+
+    private static int[] pack(Instruction[][] entries) {
+        int[] packed = new int[CodeTableSize * 2];
+        for (int i = 0; i < CodeTableSize; i++) {
+            for (int idx = 0; idx < 2; idx++) {
+                Instruction instruction = entries[i][idx];
+                packed[i * 2 + idx] = (instruction.getIst() & 0xff)
+                        | ((instruction.getMode() & 0xff) << 8)
+                        | ((instruction.getSize() & 0xff) << 16);
+            }
+        }
+        return packed;
     }
 
     /**
@@ -155,4 +176,25 @@ public class CodeTable {
         return entries[opcode][idx];
     }
 
+    /**
+     * The entries packed into ints, for decoding without lookup of Instruction objects.
+     * Entry (opcode, idx) is at opcode * 2 + idx, use {@link #packedType(int)}, {@link #packedSize(int)}
+     * and {@link #packedMode(int)} to unpack. The array is shared and must not be modified.
+     */
+    public int[] getPackedEntries() {
+        return packedEntries;
+    }
+
+    public static int packedType(int packed) {
+        return packed & 0xff;
+    }
+
+    public static short packedMode(int packed) {
+        return (short) ((packed >>> 8) & 0xff);
+    }
+
+    public static int packedSize(int packed) {
+        return packed >>> 16;
+    }
+
 }
@@ -1,7 +1,6 @@
 package net.dongliu.vcdiff.vc;
 
 import net.dongliu.vcdiff.io.ByteVector;
-import net.dongliu.vcdiff.diff.Pointer;
 import net.dongliu.vcdiff.exception.VcdiffEncodeException;
 import net.dongliu.vcdiff.utils.IOUtils;
 import net.dongliu.vcdiff.utils.Misc;
@@ -40,7 +39,17 @@ public class CodeTableWriter {
 
     private AddressCache addressCache;
 
-    private int sourceSegSize;
+    private long sourceSegSize;
+
+    /**
+     * the position of source segment in source
+     */
+    private long sourceSegPos;
+
+    /**
+     * if the source segment is data of target before current window (a VCD_TARGET window)
+     */
+    private boolean targetSegment;
 
     /**
      * The number of bytes of target data that has been encoded so far.
@@ -60,8 +69,8 @@ public class CodeTableWriter {
     int lastOpcodeIndex;
 
     /**
-     * If true, an Adler32 checksum of the target window data will be written as a variable-length integer,
-     * just after the size of the addresses section.
+     * If true, an Adler32 checksum of the target window data will be written as a 4 bytes big endian integer,
+     * just after the size of the addresses section. This is the layout xdelta3 uses for standard vcdiff format.
      */
 
     private boolean addChecksum;
@@ -71,8 +80,26 @@ public class CodeTableWriter {
      */
     private long checksum;
 
+    /**
+     * compress the sections of windows if not null
+     */
+    private SecondaryCompressor secondaryCompressor;
+
+    /**
+     * If true, write the interleaved format: data and addresses are written into the instructions section,
+     * just after the instruction they belong to, and the data and addresses sections are empty.
+     */
+    private boolean interleaved;
+
     final int BYTE_MAX = 255;
 
+    private static final ByteVector EMPTY_SECTION = new ByteVector();
+
+    /**
+     * holds the address encoded by addressCache, reused by every copy
+     */
+    private final long[] encodedAddress = new long[1];
+
     /**
      * the default code table
      */
@@ -111,8 +138,24 @@ public class CodeTableWriter {
         addresses = new ByteVector();
     }
 
-    public void init(int dictionarySize) {
-        this.sourceSegSize = dictionarySize;
+    public void init(long dictionarySize) {
+        init(0, dictionarySize);
+    }
+
+    /**
+     * init for windows using the segment of source at [position, position + size)
+     */
+    public void init(long sourceSegmentPosition, long sourceSegmentSize) {
+        init(sourceSegmentPosition, sourceSegmentSize, false);
+    }
+
+    /**
+     * init for windows using the segment at [position, position + size) of source, or of target if fromTarget.
+     */
+    public void init(long sourceSegmentPosition, long sourceSegmentSize, boolean fromTarget) {
+        this.targetSegment = fromTarget;
+        this.sourceSegPos = sourceSegmentPosition;
+        this.sourceSegSize = sourceSegmentSize;
         if (codeTableData == CodeTable.Default) {
             instructionMap = InstructionMap.DEFAULT;
         } else {
@@ -131,10 +174,20 @@ public class CodeTableWriter {
      */
     public void writeHeader(OutputStream out) throws IOException {
         out.write(Vcdiff.MAGIC_HEADER);
-        //Draft standard format
-        out.write(0);
-        // Hdr_Indicator: No compression, no custom code table
-        out.write(0);
+        if (interleaved) {
+            out.write(Vcdiff.VERSION_INTERLEAVED);
+        } else {
+            //Draft standard format
+            out.write(0);
+        }
+        if (secondaryCompressor == null) {
+            // Hdr_Indicator: No compression, no custom code table
+            out.write(0);
+        } else {
+            // Hdr_Indicator: secondary compression, no custom code table
+            out.write(Vcdiff.VCD_DECOMPRESS);
+            out.write(secondaryCompressor.getId());
+        }
     }
 
     /**
@@ -195,20 +248,27 @@ public class CodeTableWriter {
         IOUtils.writeVarIntBE(size, instructions);
     }
 
-    public void add(Pointer data, int size) throws IOException, VcdiffEncodeException {
+    public void add(byte[] data, int offset, int size) throws IOException, VcdiffEncodeException {
         encodeInstruction(Instruction.TYPE_ADD, size);
-        this.data.push(data, size);
+        this.data.push(data, offset, size);
         targetLength += size;
     }
 
-    public void copy(int offset, int size)
+    /**
+     * the bytes the address of a copy would take, if the copy follows an add of addSize bytes.
+     * Nothing is encoded.
+     */
+    public int copyAddressCost(long offset, int addSize) {
+        return addressCache.addressCost(offset, sourceSegSize + targetLength + addSize);
+    }
+
+    public void copy(long offset, int size)
             throws IOException, VcdiffEncodeException {
-        int[] encodedAddress = new int[1];
         short mode = addressCache.encodeAddress(offset, sourceSegSize + targetLength,
                 encodedAddress);
         encodeInstruction(Instruction.TYPE_COPY, size, mode);
         if (addressCache.writeAddressAsVarIntForMode(mode)) {
-            IOUtils.writeVarIntBE(encodedAddress[0], addresses);
+            IOUtils.writeVarLongBE(encodedAddress[0], addresses);
         } else {
             addresses.push((byte) encodedAddress[0]);
         }
@@ -223,69 +283,119 @@ public class CodeTableWriter {
 
     public void output(OutputStream out) throws IOException {
         if (instructions.empty()) {
-            init(sourceSegSize);
+            init(sourceSegPos, sourceSegSize, targetSegment);
             return;
         }
 
         // Add first element: Win_Indicator
+        int windowIndicator = targetSegment ? Vcdiff.VCD_TARGET : Vcdiff.VCD_SOURCE;
         if (addChecksum) {
-            out.write(Vcdiff.VCD_SOURCE | Vcdiff.VCD_CHECKSUM);
+            out.write(windowIndicator | Vcdiff.VCD_CHECKSUM);
         } else {
-            out.write(Vcdiff.VCD_SOURCE);
+            out.write(windowIndicator);
         }
         // Source segment size
-        IOUtils.writeVarIntBE(sourceSegSize, out);
+        IOUtils.writeVarLongBE(sourceSegSize, out);
         // Source segment position
-        IOUtils.writeVarIntBE(0, out);
+        IOUtils.writeVarLongBE(sourceSegPos, out);
+
+        // The sections are compressed by secondary compressor, if that makes them smaller.
+        // A compressed section is the size of the section before compressed and then the compressed data.
+        // for the interleaved format, data and addresses are all in the instructions section
+        ByteVector data = interleaved ? EMPTY_SECTION : this.data;
+        ByteVector addresses = interleaved ? EMPTY_SECTION : this.addresses;
+        byte[] compressedData = compressSection(data);
+        byte[] compressedInstructions = compressSection(instructions);
+        byte[] compressedAddresses = compressSection(addresses);
+        int deltaIndicator = 0;
+        if (compressedData != null) {
+            deltaIndicator |= Vcdiff.VCD_DATA_COMP;
+        }
+        if (compressedInstructions != null) {
+            deltaIndicator |= Vcdiff.VCD_INST_COMP;
+        }
+        if (compressedAddresses != null) {
+            deltaIndicator |= Vcdiff.VCD_ADDR_COMP;
+        }
+        int dataLen = sectionLength(data, compressedData);
+        int instructionsLen = sectionLength(instructions, compressedInstructions);
+        int addressesLen = sectionLength(addresses, compressedAddresses);
 
         // the delta len
-        int deltaEncodingLen = calculateLengthOfTheDeltaEncoding();
-        int deltaWindowSize = deltaEncodingLen +
-                1 +  // Win_Indicator
-                IOUtils.varIntLen(sourceSegSize) +
-                IOUtils.varIntLen(0) +
-                IOUtils.varIntLen(deltaEncodingLen);
+        int deltaEncodingLen = calculateLengthOfTheDeltaEncoding(dataLen, instructionsLen, addressesLen);
 
         IOUtils.writeVarIntBE(deltaEncodingLen, out);
-        //[Here is where a secondary compressor would be used
-        //  if the encoder and decoder supported that feature.]
-
 
         // Start of Delta Encoding
         //const size_t size_before_delta_encoding = out->size();
         IOUtils.writeVarIntBE(targetLength, out);
-        out.write(0x00);  // Delta_Indicator: no compression
-        IOUtils.writeVarIntBE(data.size(), out);
-        IOUtils.writeVarIntBE(instructions.size(), out);
-        IOUtils.writeVarIntBE(addresses.size(), out);
-        if (addChecksum) {
-            // The checksum is a 32-bit *unsigned* integer.  VarintBE requires a
-            // signed type, so use a 64-bit signed integer to store the checksum.
-            IOUtils.writeVarLongBE(out, checksum);
+        out.write(deltaIndicator);
+        IOUtils.writeVarIntBE(dataLen, out);
+        IOUtils.writeVarIntBE(instructionsLen, out);
+        IOUtils.writeVarIntBE(addressesLen, out);
+        if (addChecksum && interleaved) {
+            // open-vcdiff writes the checksum as a var-len integer
+            IOUtils.writeVarLongBE(checksum, out);
+        } else if (addChecksum) {
+            // The checksum is a 32-bit *unsigned* integer, stored in a long.
+            out.write((int) (checksum >>> 24) & 0xff);
+            out.write((int) (checksum >>> 16) & 0xff);
+            out.write((int) (checksum >>> 8) & 0xff);
+            out.write((int) checksum & 0xff);
         }
-        out.write(data.data(), 0, data.size());
-        out.write(instructions.data(), 0, instructions.size());
-        out.write(addresses.data(), 0, addresses.size());
+        writeSection(data, compressedData, out);
+        writeSection(instructions, compressedInstructions, out);
+        writeSection(addresses, compressedAddresses, out);
 
-        data.clear();
+        this.data.clear();
         instructions.clear();
-        addresses.clear();
+        this.addresses.clear();
+
+        init(sourceSegPos, sourceSegSize, targetSegment);
+    }
+
+    /**
+     * @return the compressed section, null if there is no secondary compressor or compressed data is not smaller
+     */
+    private byte[] compressSection(ByteVector section) throws IOException {
+        if (secondaryCompressor == null || section.empty()) {
+            return null;
+        }
+        byte[] compressed = secondaryCompressor.compress(section.data(), 0, section.size());
+        if (IOUtils.varIntLen(section.size()) + compressed.length >= section.size()) {
+            return null;
+        }
+        return compressed;
+    }
 
-        init(sourceSegSize);
+    private static int sectionLength(ByteVector section, byte[] compressed) {
+        if (compressed == null) {
+            return section.size();
+        }
+        return IOUtils.varIntLen(section.size()) + compressed.length;
+    }
+
+    private static void writeSection(ByteVector section, byte[] compressed, OutputStream out) throws IOException {
+        if (compressed == null) {
+            out.write(section.data(), 0, section.size());
+        } else {
+            IOUtils.writeVarIntBE(section.size(), out);
+            out.write(compressed);
+        }
     }
 
-    private int calculateLengthOfTheDeltaEncoding() {
+    private int calculateLengthOfTheDeltaEncoding(int dataLen, int instructionsLen, int addressesLen) {
         int length_of_the_delta_encoding =
                 IOUtils.varIntLen(targetLength) +
                         1 +  // Delta_Indicator
-                        IOUtils.varIntLen(data.size()) +
-                        IOUtils.varIntLen(instructions.size()) +
-                        IOUtils.varIntLen(addresses.size()) +
-                        data.size() +
-                        instructions.size() +
-                        addresses.size();
+                        IOUtils.varIntLen(dataLen) +
+                        IOUtils.varIntLen(instructionsLen) +
+                        IOUtils.varIntLen(addressesLen) +
+                        dataLen +
+                        instructionsLen +
+                        addressesLen;
         if (addChecksum) {
-            length_of_the_delta_encoding += IOUtils.varLongLength(checksum);
+            length_of_the_delta_encoding += interleaved ? IOUtils.varLongLen(checksum) : 4;
         }
         return length_of_the_delta_encoding;
     }
@@ -295,6 +405,27 @@ public class CodeTableWriter {
         this.checksum = checksum;
     }
 
+    /**
+     * Set the secondary compressor for the sections of windows, null for no secondary compression (the default)
+     */
+    public void setSecondaryCompressor(SecondaryCompressor secondaryCompressor) {
+        this.secondaryCompressor = secondaryCompressor;
+    }
+
+    /**
+     * Write the interleaved format of open-vcdiff, if true. Should be set before anything is written.
+     * Its windows have only one section, which the decoder can apply as it is read.
+     */
+    public void setInterleaved(boolean interleaved) {
+        this.interleaved = interleaved;
+        if (interleaved) {
+            data = instructions;
+            addresses = instructions;
+        } else {
+            InitSectionPointers();
+        }
+    }
+
     public int targetLength() {
         return this.targetLength;
     }
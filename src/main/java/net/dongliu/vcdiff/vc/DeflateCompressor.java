@@ -0,0 +1,83 @@
+package net.dongliu.vcdiff.vc;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Secondary compressor using zlib deflate. This is not one of the compressors xdelta3 defines,
+ * so patches compressed with it can only be decoded by this library.
+ *
+ * @author dongliu
+ */
+public class DeflateCompressor implements SecondaryCompressor {
+
+    /**
+     * compressor id, not used by xdelta3 (1: DJW, 2: LZMA, 16: FGK)
+     */
+    public static final int ID = 64;
+
+    private final int level;
+
+    public DeflateCompressor() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level the deflate compression level, 0-9 or Deflater.DEFAULT_COMPRESSION
+     */
+    public DeflateCompressor(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int offset, int length) throws IOException {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            byte[] buffer = new byte[length / 2 + 64];
+            int size = 0;
+            while (!deflater.finished()) {
+                if (size == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                size += deflater.deflate(buffer, size, buffer.length - size);
+            }
+            return Arrays.copyOf(buffer, size);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public void decompress(byte[] data, int offset, int length, byte[] output, int outputLength)
+            throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset, length);
+            int size = 0;
+            while (size < outputLength && !inflater.finished()) {
+                int n = inflater.inflate(output, size, outputLength - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += n;
+            }
+            if (size != outputLength || !inflater.finished()) {
+                throw new IOException("Decompressed section size mismatch, expect " + outputLength);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid deflate data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package net.dongliu.vcdiff.vc;
+
+import java.io.IOException;
+
+/**
+ * Secondary compressor for the data, instructions and addresses sections of delta windows.
+ * The compressor id is written in the vcdiff header, the decoder find the compressor by id in
+ * {@link SecondaryCompressors}. Implementations must be thread safe, parallel encoding compresses
+ * windows concurrently.
+ *
+ * @author dongliu
+ */
+public interface SecondaryCompressor {
+
+    /**
+     * the Secondary compressor ID written to the header, 1 - 255
+     */
+    int getId();
+
+    /**
+     * compress the section data
+     *
+     * @return the compressed data
+     */
+    byte[] compress(byte[] data, int offset, int length) throws IOException;
+
+    /**
+     * decompress the section data to output
+     *
+     * @param output       the buffer to hold decompressed data
+     * @param outputLength the size of decompressed data
+     * @throws IOException if the data is corrupted, or is not of outputLength after decompressed
+     */
+    void decompress(byte[] data, int offset, int length, byte[] output, int outputLength) throws IOException;
+}
@@ -0,0 +1,37 @@
+package net.dongliu.vcdiff.vc;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of secondary compressors, the decoder find the compressor of a patch here by its id.
+ * Deflate is registered by default.
+ *
+ * @author dongliu
+ */
+public class SecondaryCompressors {
+
+    private static final ConcurrentMap<Integer, SecondaryCompressor> compressors = new ConcurrentHashMap<>();
+
+    static {
+        register(new DeflateCompressor());
+    }
+
+    /**
+     * register a compressor, replace the one with the same id if exists
+     */
+    public static void register(SecondaryCompressor compressor) {
+        int id = compressor.getId();
+        if (id < 1 || id > 255) {
+            throw new IllegalArgumentException("Invalid secondary compressor id:" + id);
+        }
+        compressors.put(id, compressor);
+    }
+
+    /**
+     * @return the compressor, null if no compressor registered with the id
+     */
+    public static SecondaryCompressor get(int id) {
+        return compressors.get(id);
+    }
+}
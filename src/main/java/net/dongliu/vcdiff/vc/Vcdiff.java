@@ -10,6 +10,13 @@ public class Vcdiff {
             (byte) ('D' | 0x80),
     };
 
+    /**
+     * the version byte of the format extensions of open-vcdiff, an extension of the RFC draft standard.
+     * The checksum is a var-len integer, and data and addresses may be interleaved with instructions
+     * in the instructions section, in windows with empty data and addresses sections.
+     */
+    public static final byte VERSION_INTERLEAVED = 'S';
+
     // If this flag is set, the delta window includes an Adler32 checksum
     // of the target window data.  Not part of the RFC draft standard.
     public static final byte VCD_CHECKSUM = 0x04;
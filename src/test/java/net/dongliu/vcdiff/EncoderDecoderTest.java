@@ -1,19 +1,39 @@
 package net.dongliu.vcdiff;
 
+import net.dongliu.vcdiff.diff.ArrayByteSource;
+import net.dongliu.vcdiff.diff.EncodeLevel;
 import net.dongliu.vcdiff.exception.VcdiffDecodeException;
 import net.dongliu.vcdiff.exception.VcdiffEncodeException;
 import net.dongliu.vcdiff.io.FixedByteArrayStream;
 import net.dongliu.vcdiff.io.RandomAccessStream;
+import net.dongliu.vcdiff.utils.IOUtils;
+import net.dongliu.vcdiff.vc.CodeTableWriter;
+import net.dongliu.vcdiff.vc.DeflateCompressor;
+import net.dongliu.vcdiff.vc.SecondaryCompressor;
+import net.dongliu.vcdiff.vc.Vcdiff;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class EncoderDecoderTest {
     /**
@@ -26,11 +46,44 @@ public class EncoderDecoderTest {
      * @throws VcdiffEncodeException if something fails
      */
     private byte[] diff(byte[] source, byte[] target) throws IOException, VcdiffEncodeException {
+        return diff(source, target, null);
+    }
+
+    /**
+     * Options set to the encoder before encode.
+     */
+    private interface EncoderOptions {
+        void apply(VcdiffEncoder encoder);
+    }
+
+    /**
+     * Diff two byte arrays, with the encoder configured by options.
+     *
+     * @param options options of the encoder, null for the defaults
+     */
+    private byte[] diff(byte[] source, byte[] target, EncoderOptions options)
+            throws IOException, VcdiffEncodeException {
         try (ByteArrayInputStream sourceStream = new ByteArrayInputStream(source);
              ByteArrayInputStream targetStream = new ByteArrayInputStream(target);
              ByteArrayOutputStream diffStream = new ByteArrayOutputStream()) {
 
-            new VcdiffEncoder(sourceStream, targetStream, diffStream).encode();
+            VcdiffEncoder encoder = new VcdiffEncoder(sourceStream, targetStream, diffStream);
+            if (options != null) {
+                options.apply(encoder);
+            }
+            encoder.encode();
+            return diffStream.toByteArray();
+        }
+    }
+
+    /**
+     * Diff target against a pre-built dictionary.
+     */
+    private byte[] diff(HashedDictionary dictionary, byte[] target) throws IOException, VcdiffEncodeException {
+        try (ByteArrayInputStream targetStream = new ByteArrayInputStream(target);
+             ByteArrayOutputStream diffStream = new ByteArrayOutputStream()) {
+
+            new VcdiffEncoder(dictionary, targetStream, diffStream).encode();
             return diffStream.toByteArray();
         }
     }
@@ -166,4 +219,626 @@ public class EncoderDecoderTest {
 
         assertArrayEquals(target, patchedSource);
     }
+
+    @Test
+    public void testEncodeDecode_SharedDictionary() throws Exception {
+        byte[] source = fill(new byte[1024 * 1024]);
+        final HashedDictionary dictionary = new HashedDictionary(source);
+        final byte[][] targets = new byte[4][];
+        final byte[][] patches = new byte[targets.length][];
+        Thread[] threads = new Thread[targets.length];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = modify(Arrays.copyOf(source, source.length), 10 * (i + 1), 1000);
+            final int idx = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        patches[idx] = diff(dictionary, targets[idx]);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < targets.length; i++) {
+            threads[i].join();
+            assertArrayEquals(diff(source, targets[i]), patches[i]);
+            assertArrayEquals(targets[i], applyPatch(source, patches[i], targets[i].length));
+        }
+    }
+
+    @Test
+    public void testEncodeDecode_StreamOutput() throws Exception {
+        byte[] source = fill(new byte[1024 * 1024]);
+        byte[] target = modify(Arrays.copyOf(source, source.length), 100, 1000);
+        byte[] patch;
+        try (ByteArrayOutputStream diffStream = new ByteArrayOutputStream()) {
+            VcdiffEncoder encoder = new VcdiffEncoder(new ByteArrayInputStream(source),
+                    new ByteArrayInputStream(target), diffStream);
+            encoder.setWindowSize(64 * 1024);
+            encoder.encode();
+            patch = diffStream.toByteArray();
+        }
+
+        try (RandomAccessStream sourceStream = new FixedByteArrayStream(source, true);
+             ByteArrayOutputStream targetStream = new ByteArrayOutputStream()) {
+            VcdiffDecoder.decode(sourceStream, new ByteArrayInputStream(patch), targetStream);
+            assertArrayEquals(target, targetStream.toByteArray());
+        }
+    }
+
+    @Test
+    public void testEncodeDecode_MappedFiles() throws Exception {
+        byte[] source = fill(new byte[1024 * 1024]);
+        byte[] target = modify(Arrays.copyOf(source, source.length), 100, 1000);
+        File sourceFile = File.createTempFile("jvcdiff", ".source");
+        File targetFile = File.createTempFile("jvcdiff", ".target");
+        File patchFile = File.createTempFile("jvcdiff", ".patch");
+        File resultFile = File.createTempFile("jvcdiff", ".result");
+        try {
+            Files.write(sourceFile.toPath(), source);
+            Files.write(targetFile.toPath(), target);
+            VcdiffEncoder.encode(sourceFile, targetFile, patchFile);
+            assertArrayEquals(diff(source, target), Files.readAllBytes(patchFile.toPath()));
+            VcdiffDecoder.decode(sourceFile, patchFile, resultFile);
+            assertArrayEquals(target, Files.readAllBytes(resultFile.toPath()));
+        } finally {
+            sourceFile.delete();
+            targetFile.delete();
+            patchFile.delete();
+            resultFile.delete();
+        }
+    }
+
+    @Test
+    public void testEncodeDecode_Parallel() throws Exception {
+        byte[] source = fill(new byte[2 * 1024 * 1024]);
+        byte[] target = modify(Arrays.copyOf(source, source.length), 100, 1000);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (ByteArrayOutputStream serial = new ByteArrayOutputStream();
+             ByteArrayOutputStream parallel = new ByteArrayOutputStream()) {
+            VcdiffEncoder encoder = new VcdiffEncoder(new ByteArrayInputStream(source),
+                    new ByteArrayInputStream(target), serial);
+            encoder.setWindowSize(64 * 1024);
+            encoder.encode();
+
+            encoder = new VcdiffEncoder(new ByteArrayInputStream(source),
+                    new ByteArrayInputStream(target), parallel);
+            encoder.setWindowSize(64 * 1024);
+            encoder.setPool(pool);
+            encoder.encode();
+
+            assertArrayEquals(serial.toByteArray(), parallel.toByteArray());
+            assertArrayEquals(target, applyPatch(source, parallel.toByteArray(), target.length));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testEncodeDecode_ParallelDictionary() throws Exception {
+        byte[] source = fill(new byte[4 * 1024 * 1024]);
+        // repeated blocks make long hash chains
+        System.arraycopy(source, 0, source, 1024 * 1024, 1024 * 1024);
+        byte[] target = modify(Arrays.copyOf(source, source.length), 100, 1000);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            HashedDictionary dictionary = new HashedDictionary(new ArrayByteSource(source), pool);
+            byte[] patch = diff(dictionary, target);
+            assertArrayEquals(diff(source, target), patch);
+            assertArrayEquals(target, applyPatch(source, patch, target.length));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * encode with the target stream or the secondary compressor failing, and return the exception thrown
+     */
+    private Exception encodeError(byte[] source, final byte[] target, final boolean failTarget,
+                                  boolean failCompressor, ForkJoinPool pool) {
+        InputStream targetStream = new FilterInputStream(new ByteArrayInputStream(target)) {
+            private int read;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (failTarget && read >= target.length / 2) {
+                    throw new IOException("target failed");
+                }
+                int size = super.read(b, off, len);
+                read += Math.max(size, 0);
+                return size;
+            }
+        };
+        VcdiffEncoder encoder = new VcdiffEncoder(new ByteArrayInputStream(source), targetStream,
+                new ByteArrayOutputStream());
+        encoder.setWindowSize(64 * 1024);
+        encoder.setPool(pool);
+        if (failCompressor) {
+            encoder.setSecondaryCompressor(new DeflateCompressor() {
+                @Override
+                public byte[] compress(byte[] data, int offset, int length) throws IOException {
+                    throw new IOException("compress failed");
+                }
+            });
+        }
+        try {
+            encoder.encode();
+        } catch (Exception e) {
+            return e;
+        }
+        throw new AssertionError("encode should fail");
+    }
+
+    @Test
+    public void testEncode_ParallelErrorSameAsSerial() throws Exception {
+        byte[] source = fill(new byte[1024 * 1024]);
+        byte[] target = modify(Arrays.copyOf(source, source.length), 100, 1000);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Exception serial = encodeError(source, target, true, false, null);
+            Exception parallel = encodeError(source, target, true, false, pool);
+            assertEquals(IOException.class, serial.getClass());
+            assertEquals(serial.getClass(), parallel.getClass());
+            assertEquals(serial.getMessage(), parallel.getMessage());
+
+            serial = encodeError(source, target, false, true, null);
+            parallel = encodeError(source, target, false, true, pool);
+            assertEquals(IOException.class, serial.getClass());
+            assertEquals(serial.getClass(), parallel.getClass());
+            assertEquals(serial.getMessage(), parallel.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static final EncoderOptions CHECKSUM = new EncoderOptions() {
+        @Override
+        public void apply(VcdiffEncoder encoder) {
+            encoder.setWindowSize(256 * 1024);
+            encoder.setAddChecksum(true);
+        }
+    };
+
+    @Test
+    public void testEncodeDecode_Checksum() throws Exception {
+        byte[] source = fill(new byte[1024 * 1024]);
+        byte[] target = modify(Arrays.copyOf(source, source.length), 100, 1000);
+        byte[] patch = diff(source, target, CHECKSUM);
+        // window indicator of the first window
+        assertEquals(Vcdiff.VCD_SOURCE | Vcdiff.VCD_CHECKSUM, patch[5]);
+        assertArrayEquals(target, applyPatch(source, patch, target.length));
+    }
+
+    @Test(expected = VcdiffDecodeException.class)
+    public void testDecode_ChecksumMismatch() throws Exception {
+        byte[] target = fill(new byte[100 * 1024]);
+        // no source, the patch is mostly the data of ADD
+        byte[] patch = diff(new byte[0], target, CHECKSUM);
+        patch[patch.length / 2] ^= 1;
+        applyPatch(new byte[0], patch, target.length);
+    }
+
+    /**
+     * a window with a large ADD, then a window whose instructions need more data than its data section holds
+     */
+    private byte[] truncatedDataPatch(byte instruction, int dataLen) throws Exception {
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        CodeTableWriter coder = new CodeTableWriter();
+        coder.init(0);
+        coder.writeHeader(patch);
+        coder.add(fill(new byte[1000]), 0, 1000);
+        coder.output(patch);
+
+        // window indicator, no source
+        patch.write(0);
+        // length of delta encoding, target window length, delta indicator, section lengths, sections
+        IOUtils.writeVarIntBE(1 + 1 + 3 + dataLen + 2, patch);
+        IOUtils.writeVarIntBE(100, patch);
+        patch.write(0);
+        IOUtils.writeVarIntBE(dataLen, patch);
+        IOUtils.writeVarIntBE(2, patch);
+        IOUtils.writeVarIntBE(0, patch);
+        patch.write(new byte[dataLen]);
+        // the instruction with size 0 in code table, size 100 follows
+        patch.write(instruction);
+        IOUtils.writeVarIntBE(100, patch);
+        return patch.toByteArray();
+    }
+
+    @Test
+    public void testDecode_TruncatedAddData() throws Exception {
+        try {
+            applyPatch(new byte[0], truncatedDataPatch((byte) 1, 10), 1100);
+            fail("ADD beyond the data section");
+        } catch (VcdiffDecodeException e) {
+            assertEquals("Invalid ADD/RUN data size", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testDecode_TruncatedRunData() throws Exception {
+        try {
+            applyPatch(new byte[0], truncatedDataPatch((byte) 0, 0), 1100);
+            fail("RUN beyond the data section");
+        } catch (VcdiffDecodeException e) {
+            assertEquals("Invalid ADD/RUN data size", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testEncodeDecode_SecondaryCompressor() throws Exception {
+        byte[] source = fill(new byte[1024 * 1024]);
+        byte[] target = modify(Arrays.copyOf(source, source.length), 100, 1000);
+        // compressible data for ADD, random letters
+        Random random = new Random(0);
+        for (int i = 0; i < 64 * 1024; i++) {
+            target[i] = (byte) ('a' + random.nextInt(16));
+        }
+        byte[] plain = diff(source, target);
+        try (ByteArrayOutputStream diffStream = new ByteArrayOutputStream()) {
+            VcdiffEncoder encoder = new VcdiffEncoder(new ByteArrayInputStream(source),
+                    new ByteArrayInputStream(target), diffStream);
+            encoder.setSecondaryCompressor(new DeflateCompressor());
+            encoder.encode();
+            byte[] patch = diffStream.toByteArray();
+            assertEquals(Vcdiff.VCD_DECOMPRESS, patch[4]);
+            assertEquals(DeflateCompressor.ID, patch[5]);
+            assertTrue(patch.length < plain.length);
+            assertArrayEquals(target, applyPatch(source, patch, target.length));
+        }
+    }
+
+    @Test(expected = VcdiffDecodeException.class)
+    public void testDecode_UnknownSecondaryCompressor() throws Exception {
+        byte[] source = fill(new byte[1024]);
+        byte[] patch = diff(source, source);
+        byte[] header = {patch[0], patch[1], patch[2], 0, Vcdiff.VCD_DECOMPRESS, (byte) 200};
+        byte[] compressedPatch = new byte[patch.length + 1];
+        System.arraycopy(header, 0, compressedPatch, 0, header.length);
+        System.arraycopy(patch, 5, compressedPatch, header.length, patch.length - 5);
+        applyPatch(source, compressedPatch, source.length);
+    }
+
+    @Test
+    public void testEncodeDecode_Channels() throws Exception {
+        byte[] source = fill(new byte[1024 * 1024]);
+        byte[] target = modify(Arrays.copyOf(source, source.length), 100, 1000);
+        byte[] patch = diff(source, target);
+        File sourceFile = File.createTempFile("jvcdiff", ".source");
+        try (ByteArrayOutputStream result = new ByteArrayOutputStream()) {
+            Files.write(sourceFile.toPath(), source);
+            try (FileChannel sourceChannel = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ)) {
+                VcdiffDecoder.decode(sourceChannel, Channels.newChannel(new ByteArrayInputStream(patch)),
+                        Channels.newChannel(result));
+            }
+            assertArrayEquals(target, result.toByteArray());
+        } finally {
+            sourceFile.delete();
+        }
+    }
+
+    /**
+     * a source segment larger than 2G bytes, in a sparse file. The data after the segment is not read
+     */
+    @Test
+    public void testDecode_LargeSourceSegment() throws Exception {
+        long sourceSize = 3L << 30;
+        long address = sourceSize - 1000;
+        byte[] data = fill(new byte[500]);
+        File sourceFile = File.createTempFile("jvcdiff", ".source");
+        try (ByteArrayOutputStream patch = new ByteArrayOutputStream();
+             ByteArrayOutputStream result = new ByteArrayOutputStream()) {
+            long segmentSize = address + data.length;
+            try (RandomAccessFile raf = new RandomAccessFile(sourceFile, "rw")) {
+                raf.setLength(sourceSize);
+                raf.seek(address);
+                raf.write(data);
+                raf.write(fill(new byte[500]));
+            }
+            CodeTableWriter coder = new CodeTableWriter();
+            coder.init(0, segmentSize);
+            coder.writeHeader(patch);
+            coder.copy(address, data.length);
+            coder.copy(address - 100, 100);
+            // starts in source segment, continues from the start of target window
+            coder.copy(segmentSize - 100, 200);
+            coder.output(patch);
+
+            try (FileChannel sourceChannel = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ)) {
+                VcdiffDecoder.decode(sourceChannel, Channels.newChannel(new ByteArrayInputStream(patch.toByteArray())),
+                        Channels.newChannel(result));
+            }
+            byte[] expected = Arrays.copyOf(data, data.length + 300);
+            System.arraycopy(data, 400, expected, 600, 100);
+            System.arraycopy(data, 0, expected, 700, 100);
+            assertArrayEquals(expected, result.toByteArray());
+        } finally {
+            sourceFile.delete();
+        }
+    }
+
+    @Test
+    public void testDecode_CopyAcrossSourceSegmentEnd() throws Exception {
+        byte[] source = fill(new byte[1000]);
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        CodeTableWriter coder = new CodeTableWriter();
+        coder.init(100, 800);
+        coder.writeHeader(patch);
+        coder.copy(700, 150);
+        coder.output(patch);
+
+        byte[] expected = new byte[150];
+        System.arraycopy(source, 800, expected, 0, 100);
+        System.arraycopy(source, 800, expected, 100, 50);
+        assertArrayEquals(expected, applyPatch(source, patch.toByteArray(), expected.length));
+    }
+
+    @Test
+    public void testEncodeDecode_RepeatedData() throws Exception {
+        byte[] source = fill(new byte[64 * 1024]);
+        byte[] target = new byte[256 * 1024];
+        // repeated records of different periods, encoded as copies overlapping themselves
+        int pos = 0;
+        Random random = new Random(0);
+        for (int period : new int[]{1, 2, 3, 7, 100, 1000}) {
+            byte[] record = new byte[period];
+            random.nextBytes(record);
+            for (int i = 0; i < 40000; i++) {
+                target[pos++] = record[i % period];
+            }
+        }
+        assertArrayEquals(target, applyPatch(source, diff(source, target), target.length));
+    }
+
+    @Test
+    public void testEncodeDecode_Runs() throws Exception {
+        byte[] source = fill(new byte[64 * 1024]);
+        // sparse data, short records between long runs of zeros
+        byte[] target = new byte[1024 * 1024];
+        Random random = new Random(0);
+        for (int pos = 0; pos < target.length; pos += 4096) {
+            byte[] record = new byte[random.nextInt(64)];
+            random.nextBytes(record);
+            System.arraycopy(record, 0, target, pos, record.length);
+        }
+        try (ByteArrayOutputStream diffStream = new ByteArrayOutputStream()) {
+            VcdiffEncoder encoder = new VcdiffEncoder(new ByteArrayInputStream(source),
+                    new ByteArrayInputStream(target), diffStream);
+            encoder.setLookForTargetMatches(false);
+            encoder.encode();
+            byte[] patch = diffStream.toByteArray();
+            // runs of zeros take a few bytes each
+            assertTrue(patch.length < 256 * 40);
+            assertArrayEquals(target, applyPatch(source, patch, target.length));
+        }
+        assertArrayEquals(target, applyPatch(source, diff(source, target), target.length));
+    }
+
+    private static EncoderOptions level(final int level) {
+        return new EncoderOptions() {
+            @Override
+            public void apply(VcdiffEncoder encoder) {
+                encoder.setLevel(level);
+            }
+        };
+    }
+
+    @Test
+    public void testEncodeDecode_Levels() throws Exception {
+        byte[] source = fill(new byte[1024 * 1024]);
+        byte[] target = modify(Arrays.copyOf(source, source.length), 100, 100);
+        for (int level = EncodeLevel.MIN_LEVEL; level <= EncodeLevel.MAX_LEVEL; level++) {
+            byte[] patch = diff(source, target, level(level));
+            assertArrayEquals(target, applyPatch(source, patch, target.length));
+        }
+        // the default level produces the same patch
+        assertArrayEquals(diff(source, target), diff(source, target, level(EncodeLevel.DEFAULT_LEVEL)));
+    }
+
+    /**
+     * Each trap in target is a byte followed by a long match in source. The source also has the byte followed by
+     * the start of the long match, so greedy matching takes a short COPY, while lazy matching ADDs the byte
+     * and takes the long COPY one position later.
+     */
+    @Test
+    public void testEncodeDecode_LazyMatching() throws Exception {
+        int traps = 200;
+        byte[] source = fill(new byte[traps * 4096]);
+        ByteArrayOutputStream targetStream = new ByteArrayOutputStream();
+        Random random = new Random(0);
+        for (int k = 0; k < traps; k++) {
+            int longMatch = k * 4096;
+            int shortMatch = longMatch + 2512;
+            source[shortMatch] = (byte) random.nextInt();
+            System.arraycopy(source, longMatch, source, shortMatch + 1, 40);
+
+            byte[] filler = new byte[100];
+            random.nextBytes(filler);
+            targetStream.write(filler);
+            targetStream.write(source[shortMatch]);
+            targetStream.write(source, longMatch, 2000);
+        }
+        byte[] target = targetStream.toByteArray();
+
+        byte[] greedy = diff(source, target, level(EncodeLevel.DEFAULT_LEVEL));
+        assertArrayEquals(target, applyPatch(source, greedy, target.length));
+        for (int level = EncodeLevel.DEFAULT_LEVEL + 1; level <= EncodeLevel.MAX_LEVEL; level++) {
+            assertTrue(EncodeLevel.of(level).getLazyDepth() > 0);
+            byte[] patch = diff(source, target, level(level));
+            assertArrayEquals(target, applyPatch(source, patch, target.length));
+            assertTrue("level " + level + ": " + patch.length + " >= " + greedy.length,
+                    patch.length < greedy.length);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSetLevel_PrebuiltDictionary() throws Exception {
+        HashedDictionary dictionary = new HashedDictionary(new byte[1024]);
+        new VcdiffEncoder(dictionary, new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream()).setLevel(1);
+    }
+
+    private static EncoderOptions interleaved(final SecondaryCompressor secondaryCompressor) {
+        return new EncoderOptions() {
+            @Override
+            public void apply(VcdiffEncoder encoder) {
+                encoder.setWindowSize(64 * 1024);
+                encoder.setAddChecksum(true);
+                encoder.setInterleaved(true);
+                encoder.setSecondaryCompressor(secondaryCompressor);
+            }
+        };
+    }
+
+    @Test
+    public void testEncodeDecode_Interleaved() throws Exception {
+        byte[] source = fill(new byte[1024 * 1024]);
+        byte[] target = modify(Arrays.copyOf(source, source.length), 100, 1000);
+        // runs, and data repeated in target
+        Arrays.fill(target, 1000, 2000, (byte) 1);
+        System.arraycopy(target, 4096, target, 8192, 4096);
+
+        byte[] patch = diff(source, target, interleaved(null));
+        assertEquals(Vcdiff.VERSION_INTERLEAVED, patch[3]);
+        assertArrayEquals(target, applyPatch(source, patch, target.length));
+        try (ByteArrayOutputStream targetOutput = new ByteArrayOutputStream()) {
+            VcdiffDecoder.decode(new FixedByteArrayStream(source, true), new ByteArrayInputStream(patch),
+                    targetOutput);
+            assertArrayEquals(target, targetOutput.toByteArray());
+        }
+
+        byte[] compressed = diff(source, target, interleaved(new DeflateCompressor()));
+        assertArrayEquals(target, applyPatch(source, compressed, target.length));
+    }
+
+    /**
+     * open-vcdiff writes the 'S' version for patches with checksum, which are not interleaved
+     */
+    @Test
+    public void testDecode_VersionSChecksumNotInterleaved() throws Exception {
+        byte[] data = "hello".getBytes("US-ASCII");
+        Adler32 adler32 = new Adler32();
+        adler32.update(data, 0, data.length);
+        long checksum = adler32.getValue();
+
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        patch.write(Vcdiff.MAGIC_HEADER, 0, 3);
+        patch.write(Vcdiff.VERSION_INTERLEAVED);
+        patch.write(0);
+        patch.write(Vcdiff.VCD_CHECKSUM);
+        // length of delta encoding, target window length, delta indicator, section lengths, checksum, sections
+        IOUtils.writeVarIntBE(1 + 1 + 3 + IOUtils.varLongLen(checksum) + data.length + 1, patch);
+        IOUtils.writeVarIntBE(data.length, patch);
+        patch.write(0);
+        IOUtils.writeVarIntBE(data.length, patch);
+        IOUtils.writeVarIntBE(1, patch);
+        IOUtils.writeVarIntBE(0, patch);
+        IOUtils.writeVarLongBE(checksum, patch);
+        patch.write(data);
+        // ADD of size 5 in the default code table
+        patch.write(1 + data.length);
+
+        assertArrayEquals(data, applyPatch(new byte[0], patch.toByteArray(), data.length));
+    }
+
+    @Test(expected = VcdiffDecodeException.class)
+    public void testDecode_InterleavedChecksumMismatch() throws Exception {
+        byte[] target = fill(new byte[32 * 1024]);
+        // no source, the patch is mostly the data of ADD
+        byte[] patch = diff(new byte[0], target, interleaved(null));
+        patch[patch.length / 2] ^= 1;
+        applyPatch(new byte[0], patch, target.length);
+    }
+
+    @Test
+    public void testDecode_SourceSegmentReused() throws Exception {
+        byte[] source = fill(new byte[1024 * 1024]);
+        byte[] target = modify(Arrays.copyOf(source, source.length), 100, 1000);
+        byte[] patch = diff(source, target, CHECKSUM);
+        final int[] slices = new int[1];
+        RandomAccessStream sourceStream = new FixedByteArrayStream(source, true) {
+            @Override
+            public RandomAccessStream slice(int offset) {
+                slices[0]++;
+                return super.slice(offset);
+            }
+        };
+        try (ByteArrayOutputStream targetOutput = new ByteArrayOutputStream()) {
+            VcdiffDecoder.decode(sourceStream, new ByteArrayInputStream(patch), targetOutput);
+            assertArrayEquals(target, targetOutput.toByteArray());
+        }
+        // four windows, all use the whole source as segment
+        assertEquals(1, slices[0]);
+    }
+
+    private static EncoderOptions sourceWindow(final int sourceWindowSize) {
+        return new EncoderOptions() {
+            @Override
+            public void apply(VcdiffEncoder encoder) {
+                encoder.setWindowSize(64 * 1024);
+                encoder.setSourceWindowSize(sourceWindowSize);
+            }
+        };
+    }
+
+    @Test
+    public void testEncodeDecode_SourceWindow() throws Exception {
+        byte[] source = fill(new byte[1024 * 1024]);
+        byte[] target = modify(Arrays.copyOf(source, source.length), 100, 100);
+        // data moved a little
+        System.arraycopy(source, 500 * 1024, target, 510 * 1024, 4096);
+        byte[] patch = diff(source, target, sourceWindow(256 * 1024));
+        assertArrayEquals(target, applyPatch(source, patch, target.length));
+        // segments near the target windows have all the data
+        assertTrue(patch.length < 64 * 1024);
+
+        // longer target than source, the segment stops at the end of source
+        byte[] longTarget = Arrays.copyOf(target, target.length * 2);
+        System.arraycopy(target, 0, longTarget, target.length, target.length);
+        patch = diff(source, longTarget, sourceWindow(256 * 1024));
+        assertArrayEquals(longTarget, applyPatch(source, patch, longTarget.length));
+    }
+
+    @Test
+    public void testEncode_SourceWindowLargerThanSource() throws Exception {
+        byte[] source = fill(new byte[256 * 1024]);
+        byte[] target = modify(Arrays.copyOf(source, source.length), 10, 100);
+        try (ByteArrayOutputStream diffStream = new ByteArrayOutputStream()) {
+            VcdiffEncoder encoder = new VcdiffEncoder(new ByteArrayInputStream(source),
+                    new ByteArrayInputStream(target), diffStream);
+            encoder.setWindowSize(64 * 1024);
+            encoder.encode();
+            // the whole source is the segment of every window
+            assertArrayEquals(diffStream.toByteArray(), diff(source, target, sourceWindow(1024 * 1024)));
+        }
+    }
+
+    private static EncoderOptions targetHistory(final int targetHistorySize) {
+        return new EncoderOptions() {
+            @Override
+            public void apply(VcdiffEncoder encoder) {
+                encoder.setWindowSize(64 * 1024);
+                encoder.setAddChecksum(true);
+                encoder.setTargetHistorySize(targetHistorySize);
+            }
+        };
+    }
+
+    @Test
+    public void testEncodeDecode_TargetHistory() throws Exception {
+        byte[] source = fill(new byte[64 * 1024]);
+        // each window repeats the last one with small changes, and has nothing in source
+        byte[] block = fill(new byte[64 * 1024]);
+        byte[] target = new byte[8 * block.length];
+        for (int i = 0; i < 8; i++) {
+            modify(block, 4, 100);
+            System.arraycopy(block, 0, target, i * block.length, block.length);
+        }
+        byte[] plain = diff(source, target, targetHistory(0));
+        byte[] patch = diff(source, target, targetHistory(128 * 1024));
+        assertTrue(patch.length * 4 < plain.length);
+        assertArrayEquals(target, applyPatch(source, patch, target.length));
+    }
 }
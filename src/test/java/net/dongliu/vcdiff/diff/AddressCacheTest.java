@@ -1,11 +1,13 @@
 package net.dongliu.vcdiff.diff;
 
+import net.dongliu.vcdiff.utils.IOUtils;
 import net.dongliu.vcdiff.vc.AddressCache;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Random;
 
 /**
  * @author dongliu
@@ -20,9 +22,50 @@ public class AddressCacheTest {
 
     @Test
     public void test() throws IOException {
-        int[] encodeAddress = new int[1];
+        long[] encodeAddress = new long[1];
         short mode = addressCache.encodeAddress(100, 200, encodeAddress);
         Assert.assertEquals(200 - 100, encodeAddress[0]);
         Assert.assertEquals(0, mode);
     }
+
+    /**
+     * the cost estimated before encoding is the bytes the encoded address takes, in every mode
+     */
+    @Test
+    public void testAddressCost() {
+        Random random = new Random(0);
+        long[] encodeAddress = new long[1];
+        boolean[] modesUsed = new boolean[addressCache.LastMode() + 1];
+        long here = 1 << 20;
+        long last = 0;
+        for (int i = 0; i < 10000; i++) {
+            long address;
+            switch (random.nextInt(4)) {
+                case 0:
+                    // same
+                    address = last;
+                    break;
+                case 1:
+                    // near
+                    address = Math.min(last + random.nextInt(100), here - 1);
+                    break;
+                case 2:
+                    // here
+                    address = here - 1 - random.nextInt(100);
+                    break;
+                default:
+                    address = random.nextInt(1000);
+            }
+            int cost = addressCache.addressCost(address, here);
+            short mode = addressCache.encodeAddress(address, here, encodeAddress);
+            int written = addressCache.writeAddressAsVarIntForMode(mode) ? IOUtils.varLongLen(encodeAddress[0]) : 1;
+            Assert.assertEquals(written, cost);
+            modesUsed[mode] = true;
+            last = address;
+            here += random.nextInt(1000);
+        }
+        for (short mode = 0; mode < modesUsed.length; mode++) {
+            Assert.assertTrue("mode not used:" + mode, modesUsed[mode]);
+        }
+    }
 }
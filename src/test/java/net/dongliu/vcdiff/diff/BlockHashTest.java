@@ -0,0 +1,85 @@
+package net.dongliu.vcdiff.diff;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author dongliu
+ */
+public class BlockHashTest {
+
+    private static int bytesToRight(byte[] source, int sourceStart, byte[] target, int targetStart, int maxBytes) {
+        int bytesFound = 0;
+        while (bytesFound < maxBytes && source[sourceStart + bytesFound] == target[targetStart + bytesFound]) {
+            bytesFound++;
+        }
+        return bytesFound;
+    }
+
+    private static int bytesToLeft(byte[] source, int sourceStart, byte[] target, int targetStart, int maxBytes) {
+        int bytesFound = 0;
+        while (bytesFound < maxBytes
+                && source[sourceStart - bytesFound - 1] == target[targetStart - bytesFound - 1]) {
+            bytesFound++;
+        }
+        return bytesFound;
+    }
+
+    @Test
+    public void testMatchingBytes() throws Exception {
+        Random random = new Random();
+        byte[] source = new byte[4096];
+        random.nextBytes(source);
+        byte[] target = Arrays.copyOf(source, source.length);
+        for (int i = 0; i < 64; i++) {
+            target[random.nextInt(target.length)]++;
+        }
+        BlockHash blockHash = BlockHash.createDictionaryHash(new ArrayByteSource(source));
+        ByteSource targetSource = new ArrayByteSource(target);
+        for (int i = 0; i < 1000; i++) {
+            int start = random.nextInt(source.length);
+            int right = random.nextInt(source.length - start + 1);
+            Assert.assertEquals(bytesToRight(source, start, target, start, right),
+                    blockHash.matchingBytesToRight(start, targetSource, start, right));
+            int left = random.nextInt(start + 1);
+            Assert.assertEquals(bytesToLeft(source, start, target, start, left),
+                    blockHash.matchingBytesToLeft(start, targetSource, start, left));
+        }
+    }
+
+    @Test
+    public void testGrowingHash() throws Exception {
+        Random random = new Random(0);
+        byte[] data = new byte[64 * 1024];
+        random.nextBytes(data);
+        BlockHash growingHash = BlockHash.createGrowingHash(new ArrayByteSource(data), EncodeLevel.DEFAULT);
+        for (int size = 1000; size < data.length; size += 1000) {
+            growingHash.extend(size);
+        }
+        growingHash.extend(data.length);
+        BlockHash blockHash = BlockHash.createDictionaryHash(new ArrayByteSource(data));
+
+        RollingHash rollingHash = new RollingHash(BlockHash.K_BLOCK_SIZE);
+        ByteSource target = new ArrayByteSource(data);
+        for (int i = 0; i < 1000; i++) {
+            int candidate = random.nextInt(data.length - BlockHash.K_BLOCK_SIZE);
+            int hashValue = rollingHash.hash(target, candidate);
+            BlockHash.Match expected = new BlockHash.Match();
+            blockHash.findBestMatch(hashValue, target, candidate, 0, data.length, expected);
+            BlockHash.Match match = new BlockHash.Match();
+            growingHash.findBestMatch(hashValue, target, candidate, 0, data.length, match);
+            Assert.assertEquals(expected.getSize(), match.getSize());
+            Assert.assertEquals(expected.getSourceOffset(), match.getSourceOffset());
+        }
+
+        growingHash.clear();
+        growingHash.extend(4096);
+        int hashValue = rollingHash.hash(target, 8192);
+        BlockHash.Match match = new BlockHash.Match();
+        growingHash.findBestMatch(hashValue, target, 8192, 0, data.length, match);
+        Assert.assertEquals(0, match.getSize());
+    }
+}
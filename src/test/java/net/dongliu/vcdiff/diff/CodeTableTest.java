@@ -0,0 +1,29 @@
+package net.dongliu.vcdiff.diff;
+
+import net.dongliu.vcdiff.vc.CodeTable;
+import net.dongliu.vcdiff.vc.Instruction;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author dongliu
+ */
+public class CodeTableTest {
+
+    @Test
+    public void testPackedEntries() throws Exception {
+        // the default table, and the same table loaded from bytes as custom code tables are
+        for (CodeTable codeTable : new CodeTable[]{CodeTable.Default, new CodeTable(CodeTable.Default.getBytes())}) {
+            int[] packedEntries = codeTable.getPackedEntries();
+            for (int i = 0; i < CodeTable.CodeTableSize; i++) {
+                for (int idx = 0; idx < 2; idx++) {
+                    Instruction instruction = codeTable.get(i, idx);
+                    int packed = packedEntries[i * 2 + idx];
+                    Assert.assertEquals(instruction.getIst(), CodeTable.packedType(packed));
+                    Assert.assertEquals(instruction.getSize(), CodeTable.packedSize(packed));
+                    Assert.assertEquals(instruction.getMode(), CodeTable.packedMode(packed));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package net.dongliu.vcdiff.diff;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class MappedByteSourceTest {
+
+    /**
+     * a file larger than 2G bytes, read beyond 2G and across segments
+     */
+    @Test
+    public void testLargeFile() throws Exception {
+        File file = File.createTempFile("jvcdiff", ".source");
+        try {
+            long size = 3L << 30;
+            byte[] data = new byte[16];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) (i + 1);
+            }
+            long[] positions = {(1L << 30) - 4, (2L << 30) - 4, size - data.length};
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(size);
+                for (long position : positions) {
+                    raf.seek(position);
+                    raf.write(data);
+                }
+            }
+            long expectedLong = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).getLong();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                 MappedByteSource source = new MappedByteSource(raf.getChannel())) {
+                Assert.assertEquals(size, source.size());
+                for (long position : positions) {
+                    for (int i = 0; i < data.length; i++) {
+                        Assert.assertEquals(data[i], source.get(position + i));
+                    }
+                    Assert.assertEquals(expectedLong, source.getLong(position));
+                }
+                Assert.assertEquals(0, source.get(size - data.length - 1));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
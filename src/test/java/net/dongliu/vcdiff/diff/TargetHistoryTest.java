@@ -0,0 +1,55 @@
+package net.dongliu.vcdiff.diff;
+
+import net.dongliu.vcdiff.io.ByteVector;
+import net.dongliu.vcdiff.vc.CodeTableWriter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author dongliu
+ */
+public class TargetHistoryTest {
+
+    @Test
+    public void testAppend() throws Exception {
+        TargetHistory history = new TargetHistory(1000, EncodeLevel.DEFAULT);
+        for (int i = 0; i < 4; i++) {
+            history.append(new byte[300], 300);
+        }
+        Assert.assertEquals(0, history.start());
+        Assert.assertEquals(1200, history.length());
+        // full, keep the last 1000 bytes
+        history.append(new byte[900], 900);
+        Assert.assertEquals(1100, history.start());
+        Assert.assertEquals(1000, history.length());
+        // window larger than history size, keep the end of window
+        history.append(new byte[1500], 1500);
+        Assert.assertEquals(2600, history.start());
+        Assert.assertEquals(1000, history.length());
+        history.append(new byte[500], 500);
+        Assert.assertEquals(2600, history.start());
+        Assert.assertEquals(1500, history.length());
+    }
+
+    @Test
+    public void testMatchEarlierWindow() throws Exception {
+        Random random = new Random(0);
+        TargetHistory history = new TargetHistory(16 * 1024, EncodeLevel.DEFAULT);
+        byte[][] windows = new byte[8][4096];
+        for (byte[] window : windows) {
+            random.nextBytes(window);
+            history.append(window, window.length);
+        }
+        // the history keeps at least the last 16k
+        byte[] target = Arrays.copyOf(windows[4], 4096);
+        CodeTableWriter coder = new CodeTableWriter();
+        coder.init(history.start(), history.length(), true);
+        ByteVector out = new ByteVector();
+        history.engine().encode(target, target.length, false, out, coder);
+        // one COPY
+        Assert.assertTrue(out.size() < 32);
+    }
+}
@@ -0,0 +1,85 @@
+package net.dongliu.vcdiff.io;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+
+public class ChannelInputStreamTest {
+
+    @Test
+    public void testRead() throws Exception {
+        byte[] data = new byte[100000];
+        new Random(0).nextBytes(data);
+        try (ChannelInputStream in = new ChannelInputStream(Channels.newChannel(new ByteArrayInputStream(data)),
+                16)) {
+            byte[] result = new byte[data.length];
+            int pos = 0;
+            Random random = new Random(0);
+            while (pos < data.length) {
+                if (random.nextBoolean()) {
+                    result[pos++] = (byte) in.read();
+                } else {
+                    int size = in.read(result, pos, Math.min(random.nextInt(40), data.length - pos));
+                    Assert.assertTrue(size >= 0);
+                    pos += size;
+                }
+            }
+            Assert.assertArrayEquals(data, result);
+            Assert.assertEquals(-1, in.read());
+            Assert.assertEquals(-1, in.read(result, 0, 10));
+        }
+    }
+
+    @Test
+    public void testReadAfterClose() throws Exception {
+        ChannelInputStream in = new ChannelInputStream(Channels.newChannel(new ByteArrayInputStream(new byte[10])));
+        Assert.assertEquals(0, in.read());
+        in.close();
+        in.close();
+        try {
+            in.read();
+            Assert.fail("read after close");
+        } catch (IOException expected) {
+        }
+        try {
+            in.available();
+            Assert.fail("available after close");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testRelease() throws Exception {
+        ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(new byte[10]));
+        ChannelInputStream in = new ChannelInputStream(channel, 4);
+        Assert.assertEquals(0, in.read());
+        in.release();
+        in.release();
+        Assert.assertTrue(channel.isOpen());
+        try {
+            in.read();
+            Assert.fail("read after release");
+        } catch (IOException expected) {
+        }
+        in.close();
+        Assert.assertTrue(channel.isOpen());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonBlockingChannel() throws Exception {
+        Pipe pipe = Pipe.open();
+        try {
+            pipe.source().configureBlocking(false);
+            new ChannelInputStream(pipe.source());
+        } finally {
+            pipe.source().close();
+            pipe.sink().close();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package net.dongliu.vcdiff.io;
+
+import net.dongliu.vcdiff.utils.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+public class FileChannelStreamTest {
+
+    /**
+     * mixed reads, writes and seeks with a small buffer, compared with the same operations on an array
+     */
+    @Test
+    public void testReadWriteSeek() throws Exception {
+        File file = File.createTempFile("jvcdiff", ".stream");
+        try {
+            Random random = new Random(0);
+            byte[] expected = new byte[0];
+            int pos = 0;
+            try (FileChannelStream stream = new FileChannelStream(FileChannel.open(file.toPath(),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE), false, 16)) {
+                for (int i = 0; i < 10000; i++) {
+                    int length = random.nextInt(40);
+                    byte[] data = new byte[length];
+                    switch (random.nextInt(5)) {
+                        case 0:
+                            pos = random.nextInt(expected.length + 1);
+                            stream.seek(pos);
+                            break;
+                        case 1:
+                            data = new byte[1];
+                            random.nextBytes(data);
+                            stream.write(data[0]);
+                            expected = write(expected, pos, data);
+                            pos++;
+                            break;
+                        case 2:
+                            random.nextBytes(data);
+                            stream.write(data, 0, length);
+                            expected = write(expected, pos, data);
+                            pos += length;
+                            break;
+                        case 3:
+                            Assert.assertEquals(pos < expected.length ? expected[pos++] & 0xff : -1, stream.read());
+                            break;
+                        default:
+                            int size = stream.read(data, 0, length);
+                            if (pos == expected.length && length > 0) {
+                                Assert.assertEquals(-1, size);
+                                break;
+                            }
+                            // may read less data than requested, at the end of buffer
+                            Assert.assertTrue(size >= 0 && size <= Math.min(length, expected.length - pos));
+                            Assert.assertArrayEquals(Arrays.copyOfRange(expected, pos, pos + size),
+                                    Arrays.copyOf(data, size));
+                            pos += size;
+                    }
+                    Assert.assertEquals(pos, stream.pos());
+                }
+            }
+            Assert.assertArrayEquals(expected, Files.readAllBytes(file.toPath()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * slices read the range from channel, and close of slice does not close the channel
+     */
+    @Test
+    public void testSlice() throws Exception {
+        File file = File.createTempFile("jvcdiff", ".stream");
+        try {
+            byte[] data = new byte[100000];
+            new Random(0).nextBytes(data);
+            Files.write(file.toPath(), data);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                FileChannelStream stream = new FileChannelStream(channel, true, 16);
+                stream.seek(1000);
+                RandomAccessStream slice = stream.slice(50000);
+                Assert.assertEquals(51000, stream.pos());
+                Assert.assertEquals(50000, slice.length());
+
+                byte[] buf = new byte[30000];
+                slice.seek(40000);
+                Assert.assertEquals(data[41000] & 0xff, slice.read());
+                IOUtils.readBytes(slice, buf, 0, 9999);
+                Assert.assertArrayEquals(Arrays.copyOfRange(data, 41001, 51000), Arrays.copyOf(buf, 9999));
+                Assert.assertEquals(-1, slice.read());
+                Assert.assertEquals(-1, slice.read(buf, 0, 10));
+
+                slice.seek(10);
+                Assert.assertEquals(5, slice.read(buf, 0, 5));
+                Assert.assertArrayEquals(Arrays.copyOfRange(data, 1010, 1015), Arrays.copyOf(buf, 5));
+                slice.close();
+                Assert.assertTrue(channel.isOpen());
+
+                try {
+                    stream.slice(50000);
+                    Assert.fail("slice beyond the end of file");
+                } catch (IndexOutOfBoundsException expected) {
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static byte[] write(byte[] array, int pos, byte[] data) {
+        if (pos + data.length > array.length) {
+            array = Arrays.copyOf(array, pos + data.length);
+        }
+        System.arraycopy(data, 0, array, pos, data.length);
+        return array;
+    }
+}
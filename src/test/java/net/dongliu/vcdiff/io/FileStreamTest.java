@@ -0,0 +1,53 @@
+package net.dongliu.vcdiff.io;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+public class FileStreamTest {
+
+    @Test
+    public void testSlice() throws Exception {
+        File file = File.createTempFile("jvcdiff", ".stream");
+        try {
+            Random random = new Random(0);
+            byte[] data = new byte[10000];
+            random.nextBytes(data);
+            Files.write(file.toPath(), data);
+            // 1 KB regions step
+            try (FileStream stream = new FileStream(new RandomAccessFile(file, "rw"), false, 10)) {
+                for (int i = 0; i < 1000; i++) {
+                    int length = random.nextInt(1500);
+                    int pos = random.nextInt(data.length - length + 1);
+                    stream.seek(pos);
+                    RandomAccessStream slice = stream.slice(length);
+                    Assert.assertEquals(pos + length, stream.pos());
+                    Assert.assertTrue(slice.isReadOnly());
+                    byte[] sliceData = new byte[length];
+                    Assert.assertEquals(length == 0 ? -1 : length, slice.read(sliceData, 0, length));
+                    Assert.assertArrayEquals(Arrays.copyOfRange(data, pos, pos + length), sliceData);
+                }
+
+                // slice data written after the region mapped
+                byte[] more = new byte[100];
+                random.nextBytes(more);
+                stream.seek(data.length);
+                stream.write(more);
+                stream.seek(data.length - 50);
+                RandomAccessStream slice = stream.slice(150);
+                byte[] sliceData = new byte[150];
+                slice.read(sliceData, 0, 150);
+                Assert.assertArrayEquals(Arrays.copyOfRange(data, data.length - 50, data.length),
+                        Arrays.copyOf(sliceData, 50));
+                Assert.assertArrayEquals(more, Arrays.copyOfRange(sliceData, 50, 150));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
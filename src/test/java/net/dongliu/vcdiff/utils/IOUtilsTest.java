@@ -44,6 +44,26 @@ public class IOUtilsTest {
         Assert.assertEquals(i, j);
     }
 
+    @Test
+    public void testVarLong() throws IOException {
+        long[] values = {0, 127, 128, Integer.MAX_VALUE, 1L << 32, 40L * 1024 * 1024 * 1024, Long.MAX_VALUE};
+        for (long l : values) {
+            ByteVector byteVector = new ByteVector();
+            IOUtils.writeVarLongBE(l, byteVector);
+            Assert.assertEquals(byteVector.toBytes().length, IOUtils.varLongLen(l));
+            InputStream in = new ByteArrayInputStream(byteVector.toBytes());
+            Assert.assertEquals(l, IOUtils.readVarLongBE(in));
+            in.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testVarInt_Overflow() throws IOException {
+        ByteVector byteVector = new ByteVector();
+        IOUtils.writeVarLongBE(1L << 32, byteVector);
+        IOUtils.readVarIntBE(new ByteArrayInputStream(byteVector.toBytes()));
+    }
+
     @Test
     public void testReadAll_ShortData() throws Exception {
         byte[] expected = {0x00, 0x01, 0x02, 0x03, 0x04};